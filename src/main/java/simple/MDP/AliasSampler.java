@@ -0,0 +1,125 @@
+package simple.MDP;
+
+import java.util.SplittableRandom;
+
+/**
+ * Walker/Vose alias table over the successors of one (sFrom, a) row of an simple.MDP.
+ * Building the table is linear in the number of reachable successors; each sample
+ * afterwards costs two random numbers and no allocation.
+ */
+public class AliasSampler {
+
+	/**
+	 * Successor state ids with a non-zero probability.
+	 */
+	private final int[] outcomes;
+
+	/**
+	 * Probability of keeping the outcome of a column instead of its alias.
+	 */
+	private final double[] prob;
+
+	/**
+	 * Alternative outcome position of each column.
+	 */
+	private final int[] alias;
+
+	/**
+	 * Builds the alias table of row (sFrom, a) of the given model.
+	 *
+	 * @param model
+	 * @param sFrom
+	 * @param a
+	 */
+	public AliasSampler(IndexedMDP model, int sFrom, int a) {
+		long start = model.rowStart(sFrom, a);
+		long end = model.rowEnd(sFrom, a);
+		int n = 0;
+		double total = 0.0;
+		for (long k = start; k < end; k++) {
+			if (model.probability(k) > 0.0) {
+				n++;
+				total += model.probability(k);
+			}
+		}
+		if (n == 0) {
+			throw new IllegalStateException("Row (" + sFrom + ", " + a + ") has no reachable successor");
+		}
+		this.outcomes = new int[n];
+		this.prob = new double[n];
+		this.alias = new int[n];
+
+		// Scale the probabilities so that their average is 1.
+		int j = 0;
+		for (long k = start; k < end; k++) {
+			double p = model.probability(k);
+			if (p > 0.0) {
+				this.outcomes[j] = model.successor(k);
+				this.prob[j] = p * n / total;
+				j++;
+			}
+		}
+
+		// Pair every column below 1 with one above 1 that donates the missing mass.
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int numSmall = 0;
+		int numLarge = 0;
+		for (int i = 0; i < n; i++) {
+			if (this.prob[i] < 1.0) {
+				small[numSmall++] = i;
+			} else {
+				large[numLarge++] = i;
+			}
+		}
+		while (numSmall > 0 && numLarge > 0) {
+			int less = small[--numSmall];
+			int more = large[--numLarge];
+			this.alias[less] = more;
+			this.prob[more] = (this.prob[more] + this.prob[less]) - 1.0;
+			if (this.prob[more] < 1.0) {
+				small[numSmall++] = more;
+			} else {
+				large[numLarge++] = more;
+			}
+		}
+		// Whatever is left is 1 up to rounding error.
+		while (numLarge > 0) {
+			this.prob[large[--numLarge]] = 1.0;
+		}
+		while (numSmall > 0) {
+			this.prob[small[--numSmall]] = 1.0;
+		}
+	}
+
+	/**
+	 * Draws a successor according to the transition probabilities.
+	 *
+	 * @param rnd
+	 * @return a successor state id.
+	 */
+	public int sample(SplittableRandom rnd) {
+		int column = rnd.nextInt(this.outcomes.length);
+		return rnd.nextDouble() < this.prob[column] ? this.outcomes[column] : this.outcomes[this.alias[column]];
+	}
+
+	/**
+	 * Draws a successor uniformly at random among the reachable ones.
+	 *
+	 * @param rnd
+	 * @return a successor state id.
+	 */
+	public int sampleUniform(SplittableRandom rnd) {
+		return this.outcomes[rnd.nextInt(this.outcomes.length)];
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of reachable successors.
+	 */
+	public int getNumOutcomes() {
+		return this.outcomes.length;
+	}
+
+}
@@ -0,0 +1,106 @@
+package simple.MDP;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential little-endian writer of the binary model and dataset files, through a direct buffer
+ * that is written out whenever it fills up.
+ */
+class BinaryWriter implements Closeable {
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Bytes written out so far.
+	 */
+	private long written;
+
+	/**
+	 * Constructor. Truncates the file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	BinaryWriter(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.channel = this.file.getChannel();
+	}
+
+	void writeInt(int v) throws IOException {
+		this.ensure(4);
+		this.buffer.putInt(v);
+	}
+
+	void writeLong(long v) throws IOException {
+		this.ensure(8);
+		this.buffer.putLong(v);
+	}
+
+	void writeDouble(double v) throws IOException {
+		this.ensure(8);
+		this.buffer.putDouble(v);
+	}
+
+	void writeBytes(byte[] bytes) throws IOException {
+		for (byte b : bytes) {
+			this.ensure(1);
+			this.buffer.put(b);
+		}
+	}
+
+	/**
+	 * Pads the output with zeros to an 8-byte boundary.
+	 *
+	 * @throws IOException
+	 */
+	void pad() throws IOException {
+		while ((this.position() & 7) != 0) {
+			this.ensure(1);
+			this.buffer.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of bytes written so far.
+	 */
+	long position() {
+		return this.written + this.buffer.position();
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (this.buffer.remaining() < bytes) {
+			this.flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.written += this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			this.file.close();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package simple.MDP;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Long-indexed column of fixed-width primitives spread over ByteBuffers of at most CHUNK_BYTES
+ * each, since a single buffer cannot exceed 2^31 bytes. Widths of 4 and 8 bytes divide the chunk
+ * size, so no element straddles two chunks. Buffers are little-endian.
+ *
+ * Columns are either mapped from a file, read-only, or allocated outside the Java heap with
+ * allocate(), so that the garbage collector never scans or copies their contents. Direct memory
+ * is capped by -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+public class ChunkedBuffer {
+
+	/**
+	 * log2 of the size of a chunk in bytes.
+	 */
+	private static final int CHUNK_SHIFT = 30;
+
+	/**
+	 * Size of a chunk in bytes.
+	 */
+	public static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+
+	private static final long CHUNK_MASK = CHUNK_BYTES - 1;
+
+	/**
+	 * Consecutive chunks, all full but the last.
+	 */
+	private final ByteBuffer[] chunks;
+
+	/**
+	 * log2 of the width of an element in bytes.
+	 */
+	private final int widthShift;
+
+	/**
+	 * Number of elements.
+	 */
+	private final long size;
+
+	private ChunkedBuffer(ByteBuffer[] chunks, int width, long size) {
+		this.chunks = chunks;
+		this.widthShift = Integer.numberOfTrailingZeros(width);
+		this.size = size;
+	}
+
+	/**
+	 * Maps part of a file read-only.
+	 *
+	 * @param channel
+	 * @param position - of the first element in the file.
+	 * @param width - of an element in bytes, 4 or 8.
+	 * @param size - number of elements.
+	 * @return the mapped column.
+	 * @throws IOException
+	 */
+	public static ChunkedBuffer map(FileChannel channel, long position, int width, long size) throws IOException {
+		long bytes = size * width;
+		ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		for (int i = 0; i < chunks.length; i++) {
+			long offset = (long) i << CHUNK_SHIFT;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, Math.min(CHUNK_BYTES, bytes - offset))
+					.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return new ChunkedBuffer(chunks, checkWidth(width), size);
+	}
+
+	/**
+	 * Allocates a zeroed column outside the Java heap.
+	 *
+	 * @param width - of an element in bytes, 4 or 8.
+	 * @param size - number of elements.
+	 * @return the writable column.
+	 */
+	public static ChunkedBuffer allocate(int width, long size) {
+		long bytes = size * checkWidth(width);
+		ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		for (int i = 0; i < chunks.length; i++) {
+			long offset = (long) i << CHUNK_SHIFT;
+			chunks[i] = ByteBuffer.allocateDirect((int) Math.min(CHUNK_BYTES, bytes - offset)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return new ChunkedBuffer(chunks, width, size);
+	}
+
+	private static int checkWidth(int width) {
+		if (width != 4 && width != 8) {
+			throw new IllegalArgumentException("Elements must be 4 or 8 bytes wide, got " + width);
+		}
+		return width;
+	}
+
+	public int getInt(long i) {
+		long offset = i << this.widthShift;
+		return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & CHUNK_MASK));
+	}
+
+	public long getLong(long i) {
+		long offset = i << this.widthShift;
+		return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & CHUNK_MASK));
+	}
+
+	public double getDouble(long i) {
+		long offset = i << this.widthShift;
+		return this.chunks[(int) (offset >>> CHUNK_SHIFT)].getDouble((int) (offset & CHUNK_MASK));
+	}
+
+	public void putInt(long i, int v) {
+		long offset = i << this.widthShift;
+		this.chunks[(int) (offset >>> CHUNK_SHIFT)].putInt((int) (offset & CHUNK_MASK), v);
+	}
+
+	public void putLong(long i, long v) {
+		long offset = i << this.widthShift;
+		this.chunks[(int) (offset >>> CHUNK_SHIFT)].putLong((int) (offset & CHUNK_MASK), v);
+	}
+
+	public void putDouble(long i, double v) {
+		long offset = i << this.widthShift;
+		this.chunks[(int) (offset >>> CHUNK_SHIFT)].putDouble((int) (offset & CHUNK_MASK), v);
+	}
+
+	/**
+	 * @return the only chunk, or null if the column spans several or none.
+	 */
+	ByteBuffer single() {
+		return this.chunks.length == 1 ? this.chunks[0] : null;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of elements.
+	 */
+	public long size() {
+		return this.size;
+	}
+
+}
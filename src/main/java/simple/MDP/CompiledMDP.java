@@ -0,0 +1,131 @@
+package simple.MDP;
+
+/**
+ * Dense, int-indexed representation of an simple.MDP. Transitions and rewards are stored
+ * in flat arrays laid out as ((sFrom * |A|) + a) * |S| + sTo, so a Bellman backup touches
+ * contiguous memory instead of going through nested hash tables.
+ * Every row stores all |S| successors, so entry k has successor k % |S|.
+ */
+public class CompiledMDP implements IndexedMDP {
+
+	/**
+	 * Ids of states and actions.
+	 */
+	private final MDPIndex index;
+
+	/**
+	 * Number of states, cached for offset computations.
+	 */
+	private final int numStates;
+
+	/**
+	 * Number of actions, cached for offset computations.
+	 */
+	private final int numActions;
+
+	/**
+	 * Transition probabilities.
+	 */
+	private final double[] transition;
+
+	/**
+	 * Rewards.
+	 */
+	private final double[] reward;
+
+	/**
+	 * Constructor. The arrays are used as is, not copied.
+	 *
+	 * @param index
+	 * @param transition
+	 * @param reward
+	 */
+	public CompiledMDP(MDPIndex index, double[] transition, double[] reward) {
+		this.index = index;
+		this.numStates = index.getNumStates();
+		this.numActions = index.getNumActions();
+		long size = (long) this.numStates * this.numActions * this.numStates;
+		if (transition.length != size || reward.length != size) {
+			throw new IllegalArgumentException("Expected arrays of length " + size + " but got " + transition.length + " and " + reward.length);
+		}
+		this.transition = transition;
+		this.reward = reward;
+	}
+
+	@Override
+	public MDPIndex getIndex() {
+		return this.index;
+	}
+
+	@Override
+	public int getNumStates() {
+		return this.numStates;
+	}
+
+	@Override
+	public int getNumActions() {
+		return this.numActions;
+	}
+
+	/**
+	 * Offset of the first entry of the row (sFrom, a).
+	 *
+	 * @param sFrom
+	 * @param a
+	 * @return the position of (sFrom, a, 0) in the flat arrays.
+	 */
+	public int offset(int sFrom, int a) {
+		return (sFrom * this.numActions + a) * this.numStates;
+	}
+
+	@Override
+	public long rowStart(int sFrom, int a) {
+		return this.offset(sFrom, a);
+	}
+
+	@Override
+	public long rowEnd(int sFrom, int a) {
+		return this.offset(sFrom, a) + this.numStates;
+	}
+
+	@Override
+	public int successor(long k) {
+		return (int) (k % this.numStates);
+	}
+
+	@Override
+	public double probability(long k) {
+		return this.transition[(int) k];
+	}
+
+	@Override
+	public double reward(long k) {
+		return this.reward[(int) k];
+	}
+
+	@Override
+	public long getNumEntries() {
+		return this.transition.length;
+	}
+
+	@Override
+	public double getTransition(int sFrom, int sTo, int a) {
+		return this.transition[this.offset(sFrom, a) + sTo];
+	}
+
+	@Override
+	public double getReward(int sFrom, int sTo, int a) {
+		return this.reward[this.offset(sFrom, a) + sTo];
+	}
+
+	@Override
+	public double backup(int sFrom, int a, double gamma, double[] V) {
+		int offset = this.offset(sFrom, a);
+		double sum = 0.0;
+		for (int sTo = 0; sTo < this.numStates; sTo++) {
+			sum += this.transition[offset + sTo] * (this.reward[offset + sTo] + gamma * V[sTo]);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,314 @@
+package simple.MDP;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Streams models and solutions to a Writer, one record per line, in time and memory linear in
+ * the output. Records name states and actions by their ids.
+ *
+ * CSV output starts each section with a header row; JSON output writes one object per line with
+ * a "type" field, so sections can share a file. Only the states accepted by the filter are written:
+ * the origin states of transitions, and the states of values, Q-values and policies.
+ */
+public class DumpWriter implements Closeable {
+
+	private static final int BUFFER_CHARS = 1 << 16;
+
+	/**
+	 * Output format.
+	 */
+	public enum Format {
+		/**
+		 * Comma-separated values, with a header row per section.
+		 */
+		CSV,
+		/**
+		 * JSON lines.
+		 */
+		JSON
+	}
+
+	/**
+	 * Q-values by state and action id.
+	 */
+	@FunctionalInterface
+	public interface QValues {
+
+		double get(int s, int a);
+	}
+
+	private final Writer out;
+
+	/**
+	 * Records not yet handed to the writer, so that the writer is called once per BUFFER_CHARS.
+	 */
+	private final StringBuilder buffer = new StringBuilder(2 * BUFFER_CHARS);
+
+	private final Format format;
+
+	/**
+	 * Ids of the states to write.
+	 */
+	private IntPredicate filter = s -> true;
+
+	/**
+	 * Whether the next field is the first of its record.
+	 */
+	private boolean first;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out
+	 * @param format
+	 */
+	public DumpWriter(Writer out, Format format) {
+		this.out = out;
+		this.format = format;
+	}
+
+	/**
+	 * Constructor. Writes UTF-8.
+	 *
+	 * @param out
+	 * @param format
+	 */
+	public DumpWriter(OutputStream out, Format format) {
+		this(new OutputStreamWriter(out, StandardCharsets.UTF_8), format);
+	}
+
+	/**
+	 * Restricts the output to some states.
+	 *
+	 * @param filter - accepts the ids of the states to write.
+	 */
+	public void setFilter(IntPredicate filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Restricts the output to some states.
+	 *
+	 * @param index
+	 * @param states - the states to write.
+	 */
+	public void setFilter(MDPIndex index, Collection<State> states) {
+		BitSet ids = new BitSet(index.getNumStates());
+		for (State state : states) {
+			ids.set(index.getStateIndex(state));
+		}
+		this.filter = ids::get;
+	}
+
+	/**
+	 * Writes the non-zero transitions of a model.
+	 *
+	 * @param model
+	 * @throws IOException
+	 */
+	public void writeModel(IndexedMDP model) throws IOException {
+		MDPIndex index = model.getIndex();
+		this.header("state,action,next_state,probability,reward");
+		for (int s = 0; s < model.getNumStates(); s++) {
+			if (!this.filter.test(s)) {
+				continue;
+			}
+			for (int a = 0; a < model.getNumActions(); a++) {
+				for (long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++) {
+					double p = model.probability(k);
+					if (p == 0.0) {
+						continue;
+					}
+					this.begin("transition");
+					this.field("state", index.getState(s).getId());
+					this.field("action", index.getAction(a).getId());
+					this.field("next_state", index.getState(model.successor(k)).getId());
+					this.field("probability", p);
+					this.field("reward", model.reward(k));
+					this.end();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a value function.
+	 *
+	 * @param index
+	 * @param V - value by state id.
+	 * @throws IOException
+	 */
+	public void writeValues(MDPIndex index, IntToDoubleFunction V) throws IOException {
+		this.header("state,value");
+		for (int s = 0; s < index.getNumStates(); s++) {
+			if (this.filter.test(s)) {
+				this.begin("value");
+				this.field("state", index.getState(s).getId());
+				this.field("value", V.applyAsDouble(s));
+				this.end();
+			}
+		}
+	}
+
+	public void writeValues(MDPIndex index, double[] V) throws IOException {
+		this.writeValues(index, s -> V[s]);
+	}
+
+	/**
+	 * Writes a Q function.
+	 *
+	 * @param index
+	 * @param Q
+	 * @throws IOException
+	 */
+	public void writeQValues(MDPIndex index, QValues Q) throws IOException {
+		this.header("state,action,q");
+		for (int s = 0; s < index.getNumStates(); s++) {
+			if (!this.filter.test(s)) {
+				continue;
+			}
+			for (int a = 0; a < index.getNumActions(); a++) {
+				this.begin("q");
+				this.field("state", index.getState(s).getId());
+				this.field("action", index.getAction(a).getId());
+				this.field("q", Q.get(s, a));
+				this.end();
+			}
+		}
+	}
+
+	/**
+	 * @param index
+	 * @param Q - by s * |A| + a.
+	 * @throws IOException
+	 */
+	public void writeQValues(MDPIndex index, double[] Q) throws IOException {
+		int numActions = index.getNumActions();
+		this.writeQValues(index, (s, a) -> Q[s * numActions + a]);
+	}
+
+	/**
+	 * Writes a deterministic policy.
+	 *
+	 * @param index
+	 * @param policy - action id by state id.
+	 * @throws IOException
+	 */
+	public void writePolicy(MDPIndex index, IntUnaryOperator policy) throws IOException {
+		this.header("state,action");
+		for (int s = 0; s < index.getNumStates(); s++) {
+			if (this.filter.test(s)) {
+				this.begin("policy");
+				this.field("state", index.getState(s).getId());
+				this.field("action", index.getAction(policy.applyAsInt(s)).getId());
+				this.end();
+			}
+		}
+	}
+
+	public void writePolicy(MDPIndex index, int[] policy) throws IOException {
+		this.writePolicy(index, s -> policy[s]);
+	}
+
+	public void flush() throws IOException {
+		this.drain();
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.drain();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		this.out.append(this.buffer);
+		this.buffer.setLength(0);
+	}
+
+	private void header(String columns) {
+		if (this.format == Format.CSV) {
+			this.buffer.append(columns).append('\n');
+		}
+	}
+
+	private void begin(String type) {
+		this.first = true;
+		if (this.format == Format.JSON) {
+			this.buffer.append("{\"type\":");
+			this.quote(type);
+			this.first = false;
+		}
+	}
+
+	private void field(String name, String value) {
+		this.separator(name);
+		if (this.format == Format.JSON) {
+			this.quote(value);
+		} else if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+			this.buffer.append('"').append(value.replace("\"", "\"\"")).append('"');
+		} else {
+			this.buffer.append(value);
+		}
+	}
+
+	private void field(String name, double value) {
+		this.separator(name);
+		if (this.format == Format.JSON && (Double.isNaN(value) || Double.isInfinite(value))) {
+			// JSON has no literal for these.
+			this.quote(Double.toString(value));
+		} else {
+			this.buffer.append(value);
+		}
+	}
+
+	private void separator(String name) {
+		if (!this.first) {
+			this.buffer.append(',');
+		}
+		this.first = false;
+		if (this.format == Format.JSON) {
+			this.quote(name);
+			this.buffer.append(':');
+		}
+	}
+
+	private void end() throws IOException {
+		if (this.format == Format.JSON) {
+			this.buffer.append('}');
+		}
+		this.buffer.append('\n');
+		if (this.buffer.length() >= BUFFER_CHARS) {
+			this.drain();
+		}
+	}
+
+	private void quote(String s) {
+		this.buffer.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				this.buffer.append('\\').append(c);
+			} else if (c < 0x20) {
+				this.buffer.append(String.format("\\u%04x", (int) c));
+			} else {
+				this.buffer.append(c);
+			}
+		}
+		this.buffer.append('"');
+	}
+
+}
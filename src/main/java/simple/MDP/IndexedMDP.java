@@ -0,0 +1,171 @@
+package simple.MDP;
+
+/**
+ * Read-only, int-indexed view of an simple.MDP used by the array-based solvers.
+ *
+ * The model is a list of entries grouped in rows, one row per (sFrom, a) pair.
+ * Each entry k in [rowStart(sFrom, a), rowEnd(sFrom, a)) stores a successor state id,
+ * the probability of landing there and the reward of doing so. Dense models store
+ * every successor in every row, sparse models only the reachable ones, so solvers
+ * iterating over rows pay for the non-zero entries only.
+ * Entry positions are longs so that implementations may hold more than 2^31 entries.
+ */
+public interface IndexedMDP {
+
+	/**
+	 * Getter.
+	 *
+	 * @return the state and action ids of this MDP.
+	 */
+	MDPIndex getIndex();
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of states.
+	 */
+	int getNumStates();
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of actions.
+	 */
+	int getNumActions();
+
+	/**
+	 * @param sFrom
+	 * @param a
+	 * @return the position of the first entry of the row (sFrom, a).
+	 */
+	long rowStart(int sFrom, int a);
+
+	/**
+	 * @param sFrom
+	 * @param a
+	 * @return the position one past the last entry of the row (sFrom, a).
+	 */
+	long rowEnd(int sFrom, int a);
+
+	/**
+	 * @param k
+	 * @return the successor state id of entry k.
+	 */
+	int successor(long k);
+
+	/**
+	 * @param k
+	 * @return the transition probability of entry k.
+	 */
+	double probability(long k);
+
+	/**
+	 * @param k
+	 * @return the reward of entry k.
+	 */
+	double reward(long k);
+
+	/**
+	 * Getter.
+	 *
+	 * @return the total number of stored entries.
+	 */
+	default long getNumEntries() {
+		return this.rowEnd(this.getNumStates() - 1, this.getNumActions() - 1) - this.rowStart(0, 0);
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param sFrom
+	 * @param sTo
+	 * @param a
+	 * @return the transition probability of landing in sTo starting from sFrom and taking action a.
+	 */
+	default double getTransition(int sFrom, int sTo, int a) {
+		for (long k = this.rowStart(sFrom, a), end = this.rowEnd(sFrom, a); k < end; k++) {
+			if (this.successor(k) == sTo) {
+				return this.probability(k);
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param sFrom
+	 * @param sTo
+	 * @param a
+	 * @return the reward obtained from being in state sFrom, taking action a and landing in sTo.
+	 */
+	default double getReward(int sFrom, int sTo, int a) {
+		for (long k = this.rowStart(sFrom, a), end = this.rowEnd(sFrom, a); k < end; k++) {
+			if (this.successor(k) == sTo) {
+				return this.reward(k);
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param sFrom
+	 * @param sTo
+	 * @param a
+	 * @return the transition probability of landing in sTo starting from sFrom and taking action a.
+	 */
+	default double getTransition(State sFrom, State sTo, Action a) {
+		MDPIndex index = this.getIndex();
+		return this.getTransition(index.getStateIndex(sFrom), index.getStateIndex(sTo), index.getActionIndex(a));
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param sFrom
+	 * @param sTo
+	 * @param a
+	 * @return the reward obtained from being in state sFrom, taking action a and landing in sTo.
+	 */
+	default double getReward(State sFrom, State sTo, Action a) {
+		MDPIndex index = this.getIndex();
+		return this.getReward(index.getStateIndex(sFrom), index.getStateIndex(sTo), index.getActionIndex(a));
+	}
+
+	/**
+	 * Computes sum_{sTo} P(sTo | sFrom, a) * (R(sFrom, a, sTo) + gamma * V[sTo]).
+	 *
+	 * @param sFrom
+	 * @param a
+	 * @param gamma
+	 * @param V - value of each state, by id.
+	 * @return the expected one-step return of taking a in sFrom.
+	 */
+	default double backup(int sFrom, int a, double gamma, double[] V) {
+		double sum = 0.0;
+		for (long k = this.rowStart(sFrom, a), end = this.rowEnd(sFrom, a); k < end; k++) {
+			sum += this.probability(k) * (this.reward(k) + gamma * V[this.successor(k)]);
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the same backup as backup(int, int, double, double[]) with V stored off the heap.
+	 *
+	 * @param sFrom
+	 * @param a
+	 * @param gamma
+	 * @param V - value of each state, by id.
+	 * @return the expected one-step return of taking a in sFrom.
+	 */
+	default double backup(int sFrom, int a, double gamma, ChunkedBuffer V) {
+		double sum = 0.0;
+		for (long k = this.rowStart(sFrom, a), end = this.rowEnd(sFrom, a); k < end; k++) {
+			sum += this.probability(k) * (this.reward(k) + gamma * V.getDouble(this.successor(k)));
+		}
+		return sum;
+	}
+
+}
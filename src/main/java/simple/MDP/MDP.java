@@ -1,14 +1,13 @@
 package simple.MDP;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
-import com.google.common.collect.Lists;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
-import org.apache.commons.math3.util.Pair;
 import simple.MDP.exceptions.MDPException;
+import simple.sample.RandomStreams;
 
 /**
  * This class represents an simple.MDP.
@@ -17,6 +16,11 @@ import simple.MDP.exceptions.MDPException;
  */
 public class MDP {
 
+	/**
+	 * Largest number of elements of a Java array.
+	 */
+	private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
 	/**
 	 * An simple.MDP is composed of States.
 	 */
@@ -29,13 +33,15 @@ public class MDP {
 
 	/**
 	 * There is a probability of transition from one state to another by taking an action.
+	 * Null until first needed for an MDP built from an array-backed model.
 	 */
 	private Table<State, Action, Map<State, Double>> transition;
 
 	/**
 	 * Transition from one state to another yields a reward.
+	 * Null until first needed for an MDP built from an array-backed model.
 	 */
-	private final Table<State, Action, Map<State, Double>> reward;
+	private Table<State, Action, Map<State, Double>> reward;
 
 	/**
 	 * Amount of noise to add to true reward signal
@@ -43,9 +49,24 @@ public class MDP {
 	private final double rewardNoise;
 
 	/**
-	 * Random generator
+	 * Dense integer ids of the states and actions, built on first use.
+	 */
+	private volatile MDPIndex index;
+
+	/**
+	 * Array-backed copy of the model, built on first use and dropped whenever the dynamics change.
 	 */
-	private final Random rndg = new Random();
+	private volatile IndexedMDP compiled;
+
+	/**
+	 * Alias tables of each (sFrom, a) row of the compiled model, by sFrom * |A| + a, built on first use.
+	 */
+	private volatile AliasSampler[] samplers;
+
+	/**
+	 * Incremented every time the dynamics change, so that derived results can tell they are stale.
+	 */
+	private volatile long version;
 
 	/**
 	 * Constructor. 
@@ -81,6 +102,43 @@ public class MDP {
 		this.reward = reward;
 		this.rewardNoise = 0.0;
 	}
+
+	/**
+	 * Constructor. The MDP is backed by the given model, which becomes its compiled model, and the
+	 * transition and reward maps are only built if getDynamics() is called.
+	 *
+	 * @param states
+	 * @param actions
+	 * @param model - model indexed over the given states and actions.
+	 * @throws MDPException
+	 */
+	public MDP(Set<State> states, Set<Action> actions, IndexedMDP model) throws MDPException {
+		if(model.getNumStates() != states.size() || model.getNumActions() != actions.size()){
+			throw new MDPException("The model has " + model.getNumStates() + " states and " + model.getNumActions()
+					+ " actions, expected " + states.size() + " and " + actions.size());
+		}
+		this.states = states;
+		this.actions = actions;
+		// Check that we get a valid probability distribution.
+		for(int s = 0; s < model.getNumStates(); s++){
+			for(int a = 0; a < model.getNumActions(); a++){
+				double p = 0.0;
+				for(long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++){
+					p += model.probability(k);
+					if(model.probability(k) < 0){
+						throw new MDPException("The transition probability from state " + model.getIndex().getState(s) + " is not well-defined, a transition is negative. ");
+					}
+				}
+				// We have a tolerance to the probability adding to 1.
+				if(Math.abs(p - 1.0) > 0.0001) {
+					throw new MDPException("The transition probability from state " + model.getIndex().getState(s) + " is not well-defined, it add to " + p);
+				}
+			}
+		}
+		this.index = model.getIndex();
+		this.compiled = model;
+		this.rewardNoise = 0.0;
+	}
 	
 	/**
 	 * Getter.
@@ -91,7 +149,12 @@ public class MDP {
 	 * @return the transition probability of landing in sTo starting from sFrom and taking action a.
 	 */
 	public double getTransition(State sFrom, State sTo, Action a) {
-		return this.transition.get(sFrom, a).get(sTo);
+		if(this.transition == null){
+			return this.compile().getTransition(sFrom, sTo, a);
+		}
+		// Rows built from an array model only hold the successors the model stores.
+		Double p = this.transition.get(sFrom, a).get(sTo);
+		return p == null ? 0.0 : p;
 	}
 
 	/**
@@ -103,7 +166,17 @@ public class MDP {
 	 * @return the reward obtained from being in state sFrom, taking action a and landing in sTo.
 	 */
 	public double getReward(State sFrom, State sTo, Action a) {
-		return this.reward.get(sFrom, a).get(sTo) + this.rndg.nextGaussian()*this.rewardNoise;
+		double r;
+		if(this.reward == null){
+			r = this.compile().getReward(sFrom, sTo, a);
+		} else {
+			Double rew = this.reward.get(sFrom, a).get(sTo);
+			r = rew == null ? 0.0 : rew;
+		}
+		if(this.rewardNoise != 0.0){
+			r += RandomStreams.nextGaussian(RandomStreams.current())*this.rewardNoise;
+		}
+		return r;
 	}
 	
 	/**
@@ -129,8 +202,16 @@ public class MDP {
 	 * @return A state sampled uniformly at random from the state space
 	 */
 	public State getRandomState(){
-		List<State> allStates = Lists.newArrayList(this.states);
-		return allStates.get(new Random().nextInt(allStates.size()));
+		return this.getRandomState(RandomStreams.current());
+	}
+
+	/**
+	 * Produce a state uniformly at random from all the states of this MDP
+	 * @param rnd stream to draw from
+	 * @return A state sampled uniformly at random from the state space
+	 */
+	public State getRandomState(SplittableRandom rnd){
+		return this.getIndex().getState(rnd.nextInt(this.states.size()));
 	}
 
 	/**
@@ -138,67 +219,350 @@ public class MDP {
 	 * @return An action sampled uniformly at random from the action space
 	 */
 	public Action getRandomAction(){
-		List<Action> allActions = Lists.newArrayList(this.actions);
-		return allActions.get(new Random().nextInt(allActions.size()));
+		return this.getRandomAction(RandomStreams.current());
+	}
+
+	/**
+	 * Produce an action uniformly at random from all the actions of this MDP
+	 * @param rnd stream to draw from
+	 * @return An action sampled uniformly at random from the action space
+	 */
+	public Action getRandomAction(SplittableRandom rnd){
+		return this.getIndex().getAction(rnd.nextInt(this.actions.size()));
 	}
 
 	public void setTransition(Table<State, Action, Map<State, Double>> newTrans){
+		this.materialize();
 		this.transition = newTrans;
+		this.invalidateCache();
+	}
+
+	/**
+	 * Drops the compiled model. Must be called after mutating the maps returned by getDynamics() in place.
+	 */
+	public void invalidateCache(){
+		this.materialize();
+		this.compiled = null;
+		this.samplers = null;
+		this.version++;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return a counter that changes every time the dynamics of this MDP change.
+	 */
+	public long getVersion(){
+		return this.version;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the dense integer ids of the states and actions of this MDP.
+	 */
+	public MDPIndex getIndex(){
+		MDPIndex ret = this.index;
+		if(ret == null){
+			ret = new MDPIndex(this.states, this.actions);
+			this.index = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns an array-backed copy of this MDP's transitions and rewards, indexed by getIndex().
+	 * The copy is cached until the dynamics change. Reward noise is not part of the compiled model.
+	 * A compressed-sparse-row layout is used when at most half of the transitions are non-zero
+	 * or when a dense layout would not fit in an array, a dense layout otherwise.
+	 *
+	 * @return the compiled model.
+	 */
+	public IndexedMDP compile(){
+		IndexedMDP ret = this.compiled;
+		if(ret == null){
+			long dense = (long) this.states.size() * this.actions.size() * this.states.size();
+			ret = dense > MAX_ARRAY || 2 * this.countNonZeroTransitions() <= dense ? this.compileSparse() : this.compileDense();
+			this.compiled = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Copies this MDP's transitions and rewards into dense arrays, indexed by getIndex().
+	 *
+	 * @return the dense model.
+	 * @throws IllegalStateException if |S| * |A| * |S| exceeds the size of an array.
+	 */
+	public CompiledMDP compileDense(){
+		MDPIndex idx = this.getIndex();
+		int numStates = idx.getNumStates();
+		int numActions = idx.getNumActions();
+		long size = (long) numStates * numActions * numStates;
+		if(size > MAX_ARRAY){
+			throw new IllegalStateException("A dense layout of " + size + " entries does not fit in an array, use compileSparse()");
+		}
+		double[] t = new double[(int) size];
+		double[] r = new double[t.length];
+		if(this.transition == null){
+			// Array-backed MDP: copy the entries its model stores.
+			IndexedMDP model = this.compiled;
+			for(int s = 0; s < numStates; s++){
+				for(int a = 0; a < numActions; a++){
+					int offset = (s * numActions + a) * numStates;
+					for(long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++){
+						t[offset + model.successor(k)] = model.probability(k);
+						r[offset + model.successor(k)] = model.reward(k);
+					}
+				}
+			}
+			return new CompiledMDP(idx, t, r);
+		}
+		int offset = 0;
+		for(int s = 0; s < numStates; s++){
+			for(int a = 0; a < numActions; a++){
+				Map<State, Double> tRow = this.transition.get(idx.getState(s), idx.getAction(a));
+				Map<State, Double> rRow = this.reward.get(idx.getState(s), idx.getAction(a));
+				for(int sprime = 0; sprime < numStates; sprime++){
+					State to = idx.getState(sprime);
+					Double p = tRow == null ? null : tRow.get(to);
+					Double rew = rRow == null ? null : rRow.get(to);
+					t[offset + sprime] = p == null ? 0.0 : p;
+					r[offset + sprime] = rew == null ? 0.0 : rew;
+				}
+				offset += numStates;
+			}
+		}
+		return new CompiledMDP(idx, t, r);
+	}
+
+	/**
+	 * Copies the non-zero transitions of this MDP and their rewards into compressed-sparse-row arrays,
+	 * indexed by getIndex().
+	 *
+	 * @return the sparse model.
+	 * @throws IllegalStateException if the non-zero transitions do not fit in an array.
+	 */
+	public SparseMDP compileSparse(){
+		if(this.transition == null){
+			return SparseMDP.fromIndexed(this.compiled);
+		}
+		MDPIndex idx = this.getIndex();
+		int numStates = idx.getNumStates();
+		int numActions = idx.getNumActions();
+		long count = this.countNonZeroTransitions();
+		long size = Math.max(count, (long) numStates * numActions + 1);
+		if(size > MAX_ARRAY){
+			throw new IllegalStateException("A sparse layout of " + size + " entries does not fit in an array, use OffHeapMDP");
+		}
+		int nnz = (int) count;
+		int[] rowOffsets = new int[numStates * numActions + 1];
+		int[] successors = new int[nnz];
+		double[] probabilities = new double[nnz];
+		double[] rewards = new double[nnz];
+		int k = 0;
+		for(int s = 0; s < numStates; s++){
+			for(int a = 0; a < numActions; a++){
+				rowOffsets[s * numActions + a] = k;
+				Map<State, Double> tRow = this.transition.get(idx.getState(s), idx.getAction(a));
+				Map<State, Double> rRow = this.reward.get(idx.getState(s), idx.getAction(a));
+				if(tRow == null){
+					continue;
+				}
+				int rowFirst = k;
+				for(Map.Entry<State, Double> entry : tRow.entrySet()){
+					if(entry.getValue() != 0.0){
+						successors[k] = idx.getStateIndex(entry.getKey());
+						k++;
+					}
+				}
+				Arrays.sort(successors, rowFirst, k);
+				for(int j = rowFirst; j < k; j++){
+					State to = idx.getState(successors[j]);
+					Double rew = rRow == null ? null : rRow.get(to);
+					probabilities[j] = tRow.get(to);
+					rewards[j] = rew == null ? 0.0 : rew;
+				}
+			}
+		}
+		rowOffsets[rowOffsets.length - 1] = k;
+		return new SparseMDP(idx, rowOffsets, successors, probabilities, rewards);
+	}
+
+	/**
+	 * @return the number of (sFrom, a, sTo) triples with a non-zero transition probability.
+	 */
+	private long countNonZeroTransitions(){
+		long nnz = 0;
+		if(this.transition == null){
+			IndexedMDP model = this.compiled;
+			for(long k = 0; k < model.getNumEntries(); k++){
+				if(model.probability(k) != 0.0){
+					nnz++;
+				}
+			}
+			return nnz;
+		}
+		for(Map<State, Double> row : this.transition.values()){
+			for(Double p : row.values()){
+				if(p != 0.0){
+					nnz++;
+				}
+			}
+		}
+		return nnz;
 	}
 
 	public Table<State, Action, Map<State, Double>> getDynamics(){
+		this.materialize();
 		return this.transition;
 	}
 
+	/**
+	 * Builds the transition and reward maps of an MDP backed by an array model, with an entry
+	 * for every stored (sFrom, a, sTo) triple.
+	 */
+	private synchronized void materialize(){
+		if(this.transition != null && this.reward != null){
+			return;
+		}
+		IndexedMDP model = this.compiled;
+		MDPIndex idx = this.getIndex();
+		Table<State, Action, Map<State, Double>> t = HashBasedTable.create();
+		Table<State, Action, Map<State, Double>> r = HashBasedTable.create();
+		for(int s = 0; s < idx.getNumStates(); s++){
+			for(int a = 0; a < idx.getNumActions(); a++){
+				Map<State, Double> tRow = new HashMap<>();
+				Map<State, Double> rRow = new HashMap<>();
+				for(long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++){
+					State to = idx.getState(model.successor(k));
+					tRow.put(to, model.probability(k));
+					rRow.put(to, model.reward(k));
+				}
+				t.put(idx.getState(s), idx.getAction(a), tRow);
+				r.put(idx.getState(s), idx.getAction(a), rRow);
+			}
+		}
+		if(this.transition == null){
+			this.transition = t;
+		}
+		if(this.reward == null){
+			this.reward = r;
+		}
+	}
+
+	/**
+	 * Samples the next state of taking action a in state s.
+	 *
+	 * @param s
+	 * @param a
+	 * @return a successor of s drawn from the transition probabilities.
+	 */
 	public State sampleTransition(State s, Action a){
-		List<Pair<State, Double>> pmf = this.transition.get(s, a).entrySet().stream()
-				.map(e -> new Pair<>(e.getKey(), e.getValue())).collect(Collectors.toList());
-		EnumeratedDistribution<State> transition = new EnumeratedDistribution<>(pmf);
-		return transition.sample();
+		return this.sampleTransition(s, a, RandomStreams.current());
+	}
+
+	/**
+	 * Samples the next state of taking action a in state s.
+	 *
+	 * @param s
+	 * @param a
+	 * @param rnd - stream to draw from.
+	 * @return a successor of s drawn from the transition probabilities.
+	 */
+	public State sampleTransition(State s, Action a, SplittableRandom rnd){
+		MDPIndex idx = this.getIndex();
+		AliasSampler sampler = this.getSampler(idx.getStateIndex(s), idx.getActionIndex(a));
+		return idx.getState(sampler.sample(rnd));
 	}
 
+	/**
+	 * Samples the next state of taking action a in state s uniformly among the reachable ones.
+	 *
+	 * @param s
+	 * @param a
+	 * @return a successor of s with non-zero transition probability.
+	 */
 	public State sampleRandomTransition(State s, Action a){
-		long numReachable = this.transition.get(s, a).entrySet().stream().filter(e -> e.getValue() > 0.0).count();
-		List<Pair<State, Double>> pmf = this.transition.get(s, a).entrySet().stream()
-				.filter(e -> e.getValue() > 0.0)
-				.map(e -> new Pair<>(e.getKey(), 1.0 / numReachable)).collect(Collectors.toList());
-		EnumeratedDistribution<State> transition = new EnumeratedDistribution<>(pmf);
-		return transition.sample();
+		return this.sampleRandomTransition(s, a, RandomStreams.current());
+	}
+
+	/**
+	 * Samples the next state of taking action a in state s uniformly among the reachable ones.
+	 *
+	 * @param s
+	 * @param a
+	 * @param rnd - stream to draw from.
+	 * @return a successor of s with non-zero transition probability.
+	 */
+	public State sampleRandomTransition(State s, Action a, SplittableRandom rnd){
+		MDPIndex idx = this.getIndex();
+		AliasSampler sampler = this.getSampler(idx.getStateIndex(s), idx.getActionIndex(a));
+		return idx.getState(sampler.sampleUniform(rnd));
+	}
+
+	/**
+	 * Returns the alias table of row (s, a), building it on first use.
+	 * Concurrent callers may build the same table twice; both copies are equivalent.
+	 *
+	 * @param s
+	 * @param a
+	 * @return the alias table of the row.
+	 */
+	private AliasSampler getSampler(int s, int a){
+		AliasSampler[] table = this.samplers;
+		if(table == null){
+			table = new AliasSampler[this.states.size() * this.actions.size()];
+			this.samplers = table;
+		}
+		int row = s * this.actions.size() + a;
+		AliasSampler ret = table[row];
+		if(ret == null){
+			ret = new AliasSampler(this.compile(), s, a);
+			table[row] = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Streams the non-zero transitions of this MDP, for models too large for toString().
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void dump(DumpWriter out) throws IOException {
+		out.writeModel(this.compile());
 	}
 
 	@Override
 	public String toString() {
-		String ret = "\nStates: \n";
+		this.materialize();
+		StringBuilder ret = new StringBuilder("\nStates: \n");
 		for (State state : this.states) {
-			ret += "\t" + state + "\n";
+			ret.append("\t").append(state).append("\n");
 		}
-		ret += "Actions:\n";
+		ret.append("Actions:\n");
 		for (Action action : this.actions) {
-			ret += "\t" + action + "\n";
+			ret.append("\t").append(action).append("\n");
 		}
 
-		ret += "\nTransitions:";
-		for (State state : this.states) {
-			ret += "\nFrom state " + state;
-			for (Action action : this.actions) {
-				ret += "\n\t taking action " + action;
-				for (Map.Entry<State, Double> entry : this.transition.get(state, action).entrySet()) {
-					ret += "\n\t\t to " + entry.getKey() + ",  " + entry.getValue();
-				}
-			}
-		}
+		ret.append("\nTransitions:");
+		this.appendRows(ret, this.transition);
+		ret.append("\nRewards:");
+		this.appendRows(ret, this.reward);
+		return ret.toString();
+	}
 
-		ret += "\nRewards:";
+	private void appendRows(StringBuilder ret, Table<State, Action, Map<State, Double>> rows) {
 		for (State state : this.states) {
-			ret += "\nFrom state " + state;
+			ret.append("\nFrom state ").append(state);
 			for (Action action : this.actions) {
-				ret += "\n\t taking action " + action;
-				for (Map.Entry<State, Double> entry : this.reward.get(state, action).entrySet()) {
-					ret += "\n\t\t to " + entry.getKey() + ",  " + entry.getValue();
+				ret.append("\n\t taking action ").append(action);
+				for (Map.Entry<State, Double> entry : rows.get(state, action).entrySet()) {
+					ret.append("\n\t\t to ").append(entry.getKey()).append(",  ").append(entry.getValue());
 				}
 			}
 		}
-		return ret;
 	}
 
 }
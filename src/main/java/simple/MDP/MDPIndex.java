@@ -0,0 +1,136 @@
+package simple.MDP;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense integer ids to the states and actions of an simple.MDP.
+ * Ids follow the iteration order of the collections the index was built from.
+ */
+public class MDPIndex {
+
+	/**
+	 * States, by id.
+	 */
+	private final State[] states;
+
+	/**
+	 * Actions, by id.
+	 */
+	private final Action[] actions;
+
+	/**
+	 * Id of each state.
+	 */
+	private final Map<State, Integer> stateIds;
+
+	/**
+	 * Id of each action.
+	 */
+	private final Map<Action, Integer> actionIds;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param states
+	 * @param actions
+	 */
+	public MDPIndex(Collection<State> states, Collection<Action> actions) {
+		this.states = states.toArray(new State[states.size()]);
+		this.actions = actions.toArray(new Action[actions.size()]);
+		this.stateIds = new HashMap<>(2 * this.states.length);
+		this.actionIds = new HashMap<>(2 * this.actions.length);
+		for (int i = 0; i < this.states.length; i++) {
+			this.stateIds.put(this.states[i], i);
+		}
+		for (int j = 0; j < this.actions.length; j++) {
+			this.actionIds.put(this.actions[j], j);
+		}
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of states.
+	 */
+	public int getNumStates() {
+		return this.states.length;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of actions.
+	 */
+	public int getNumActions() {
+		return this.actions.length;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param s
+	 * @return the state with id s.
+	 */
+	public State getState(int s) {
+		return this.states[s];
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param a
+	 * @return the action with id a.
+	 */
+	public Action getAction(int a) {
+		return this.actions[a];
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param state
+	 * @return the id of the given state.
+	 */
+	public int getStateIndex(State state) {
+		Integer id = this.stateIds.get(state);
+		if (id == null) {
+			throw new IllegalArgumentException("State " + state + " is not part of this index");
+		}
+		return id;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param action
+	 * @return the id of the given action.
+	 */
+	public int getActionIndex(Action action) {
+		Integer id = this.actionIds.get(action);
+		if (id == null) {
+			throw new IllegalArgumentException("Action " + action + " is not part of this index");
+		}
+		return id;
+	}
+
+	/**
+	 * Hash of the ids of the states and actions in index order, for checking that data stored
+	 * by index positions is read back against the same index.
+	 *
+	 * @return the fingerprint of this index.
+	 */
+	public long getFingerprint() {
+		long h = 1125899906842597L;
+		for (State s : this.states) {
+			h = 31 * h + s.getId().hashCode();
+		}
+		h = 31 * h + this.states.length;
+		for (Action a : this.actions) {
+			h = 31 * h + a.getId().hashCode();
+		}
+		return 31 * h + this.actions.length;
+	}
+
+}
@@ -0,0 +1,239 @@
+package simple.MDP;
+
+import simple.MDP.exceptions.MDPException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An simple.MDP served straight from a memory-mapped model file, so that loading costs a few
+ * page mappings whatever the size of the model, and JVMs opening the same file share its pages.
+ * Solvers taking an IndexedMDP run on it directly; load() wraps it in an MDP. Reads through a
+ * mapping cost more than array reads, so a model swept many times in one process can be copied
+ * onto the heap with SparseMDP.fromIndexed() once loaded.
+ *
+ * File layout, little-endian, with every block starting on an 8-byte boundary:
+ * <ul>
+ * <li>Header of HEADER_BYTES: MAGIC, VERSION, layout (DENSE or SPARSE), |S|, |A|, a reserved int,
+ * the number of entries and the size of the id table in bytes.</li>
+ * <li>Id table: the id of every state then of every action, in index order, each as its UTF-8
+ * length followed by its bytes.</li>
+ * <li>DENSE: probabilities then rewards, |S| * |A| * |S| doubles each, laid out like CompiledMDP.</li>
+ * <li>SPARSE: |S| * |A| + 1 row offsets as longs, then the successors as ints, the probabilities
+ * and the rewards as doubles, laid out like SparseMDP with successors sorted within rows.</li>
+ * </ul>
+ */
+public class MappedMDP extends OffHeapMDP {
+
+	/**
+	 * First bytes of a model file, "MDPB".
+	 */
+	public static final int MAGIC = 0x4d445042;
+
+	public static final int VERSION = 1;
+
+	public static final int DENSE = 0;
+
+	public static final int SPARSE = 1;
+
+	private static final int HEADER_BYTES = 64;
+
+	private MappedMDP(MDPIndex index, ChunkedBuffer rowOffsets, ChunkedBuffer successors,
+					  ChunkedBuffer probabilities, ChunkedBuffer rewards) {
+		super(index, rowOffsets, successors, probabilities, rewards);
+	}
+
+	/**
+	 * Mapped models are read-only.
+	 *
+	 * @throws IllegalStateException always.
+	 */
+	@Override
+	public void set(long k, int sTo, double probability, double reward) {
+		throw new IllegalStateException("Mapped models are read-only");
+	}
+
+	/**
+	 * Writes a model to a file. Models storing every successor in every row are written dense,
+	 * others sparse.
+	 *
+	 * @param model
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(IndexedMDP model, File file) throws IOException {
+		int numStates = model.getNumStates();
+		int numActions = model.getNumActions();
+		boolean dense = true;
+		for (int s = 0; s < numStates && dense; s++) {
+			for (int a = 0; a < numActions && dense; a++) {
+				dense = model.rowEnd(s, a) - model.rowStart(s, a) == numStates;
+			}
+		}
+		List<byte[]> ids = new ArrayList<>();
+		for (int s = 0; s < numStates; s++) {
+			ids.add(model.getIndex().getState(s).getId().getBytes(StandardCharsets.UTF_8));
+		}
+		for (int a = 0; a < numActions; a++) {
+			ids.add(model.getIndex().getAction(a).getId().getBytes(StandardCharsets.UTF_8));
+		}
+		long idBytes = 0;
+		for (byte[] id : ids) {
+			idBytes += 4 + id.length;
+		}
+		idBytes = (idBytes + 7) & ~7L;
+
+		try (BinaryWriter out = new BinaryWriter(file)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dense ? DENSE : SPARSE);
+			out.writeInt(numStates);
+			out.writeInt(numActions);
+			out.writeInt(0);
+			out.writeLong(model.getNumEntries());
+			out.writeLong(idBytes);
+			out.pad();
+			while (out.position() < HEADER_BYTES) {
+				out.writeLong(0L);
+			}
+			for (byte[] id : ids) {
+				out.writeInt(id.length);
+				out.writeBytes(id);
+			}
+			out.pad();
+			if (dense) {
+				writeDense(model, out, true);
+				writeDense(model, out, false);
+			} else {
+				writeSparse(model, out);
+			}
+		}
+	}
+
+	/**
+	 * Writes the probabilities or the rewards of a model with full rows, by successor id.
+	 */
+	private static void writeDense(IndexedMDP model, BinaryWriter out, boolean probabilities) throws IOException {
+		int numStates = model.getNumStates();
+		double[] row = new double[numStates];
+		for (int s = 0; s < numStates; s++) {
+			for (int a = 0; a < model.getNumActions(); a++) {
+				for (long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++) {
+					row[model.successor(k)] = probabilities ? model.probability(k) : model.reward(k);
+				}
+				for (double v : row) {
+					out.writeDouble(v);
+				}
+			}
+		}
+	}
+
+	private static void writeSparse(IndexedMDP model, BinaryWriter out) throws IOException {
+		// Rows are written once per column, so unsorted rows are sorted once, into a copy.
+		if (!OffHeapMDP.isRowSorted(model)) {
+			model = OffHeapMDP.copyOf(model);
+		}
+		int numStates = model.getNumStates();
+		int numActions = model.getNumActions();
+		long position = 0;
+		for (int s = 0; s < numStates; s++) {
+			for (int a = 0; a < numActions; a++) {
+				out.writeLong(position);
+				position += model.rowEnd(s, a) - model.rowStart(s, a);
+			}
+		}
+		out.writeLong(position);
+		for (int column = 0; column < 3; column++) {
+			for (int s = 0; s < numStates; s++) {
+				for (int a = 0; a < numActions; a++) {
+					for (long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++) {
+						if (column == 0) {
+							out.writeInt(model.successor(k));
+						} else if (column == 1) {
+							out.writeDouble(model.probability(k));
+						} else {
+							out.writeDouble(model.reward(k));
+						}
+					}
+				}
+			}
+			out.pad();
+		}
+	}
+
+	/**
+	 * Maps a model file. The model stays valid after the file is closed.
+	 *
+	 * @param file
+	 * @return the mapped model, over new states and actions with the ids of the file.
+	 * @throws IOException
+	 */
+	public static MappedMDP map(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(file + " is not a version " + VERSION + " model file");
+			}
+			int layout = header.getInt(8);
+			int numStates = header.getInt(12);
+			int numActions = header.getInt(16);
+			long numEntries = header.getLong(24);
+			long idBytes = header.getLong(32);
+
+			ByteBuffer idTable = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, idBytes).order(ByteOrder.LITTLE_ENDIAN);
+			List<State> states = new ArrayList<>(numStates);
+			List<Action> actions = new ArrayList<>(numActions);
+			for (int i = 0; i < numStates + numActions; i++) {
+				byte[] id = new byte[idTable.getInt()];
+				idTable.get(id);
+				String name = new String(id, StandardCharsets.UTF_8);
+				if (i < numStates) {
+					states.add(new State(name));
+				} else {
+					actions.add(new Action(name));
+				}
+			}
+			MDPIndex index = new MDPIndex(states, actions);
+
+			long position = HEADER_BYTES + idBytes;
+			if (layout == DENSE) {
+				long size = (long) numStates * numActions * numStates;
+				ChunkedBuffer probabilities = ChunkedBuffer.map(channel, position, 8, size);
+				ChunkedBuffer rewards = ChunkedBuffer.map(channel, position + 8 * size, 8, size);
+				return new MappedMDP(index, null, null, probabilities, rewards);
+			}
+			if (layout != SPARSE) {
+				throw new IOException(file + " has an unknown layout " + layout);
+			}
+			long numRows = (long) numStates * numActions + 1;
+			ChunkedBuffer rowOffsets = ChunkedBuffer.map(channel, position, 8, numRows);
+			position += 8 * numRows;
+			ChunkedBuffer successors = ChunkedBuffer.map(channel, position, 4, numEntries);
+			position += (4 * numEntries + 7) & ~7L;
+			ChunkedBuffer probabilities = ChunkedBuffer.map(channel, position, 8, numEntries);
+			position += 8 * numEntries;
+			ChunkedBuffer rewards = ChunkedBuffer.map(channel, position, 8, numEntries);
+			return new MappedMDP(index, rowOffsets, successors, probabilities, rewards);
+		}
+	}
+
+	/**
+	 * Maps a model file and wraps it in an MDP, after checking that every row is a distribution.
+	 *
+	 * @param file
+	 * @return the MDP, backed by the mapped file.
+	 * @throws IOException
+	 * @throws MDPException
+	 */
+	public static MDP load(File file) throws IOException, MDPException {
+		return map(file).toMDP();
+	}
+
+}
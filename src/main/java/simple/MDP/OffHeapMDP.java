@@ -0,0 +1,343 @@
+package simple.MDP;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import simple.MDP.exceptions.MDPException;
+
+/**
+ * An simple.MDP whose entries live outside the Java heap, in long-indexed ChunkedBuffers, so that
+ * models of any number of entries add nothing for the garbage collector to scan or copy. Rows are
+ * laid out like SparseMDP, with long row offsets and successors sorted within rows, or, for models
+ * read from a file, every successor in every row like CompiledMDP.
+ *
+ * A model is built either with copyOf(), or by allocating it with the length of each row and
+ * filling in its entries with set(). Entries of distinct rows may be set from distinct threads.
+ */
+public class OffHeapMDP implements IndexedMDP {
+
+	/**
+	 * Ids of states and actions.
+	 */
+	private final MDPIndex index;
+
+	private final int numStates;
+
+	private final int numActions;
+
+	/**
+	 * Position of the first entry of each row, or null for a dense model.
+	 */
+	private final ChunkedBuffer rowOffsets;
+
+	/**
+	 * Successor state id of each entry, or null for a dense model.
+	 */
+	private final ChunkedBuffer successors;
+
+	private final ChunkedBuffer probabilities;
+
+	private final ChunkedBuffer rewards;
+
+	/**
+	 * The columns of a model small enough for each to fit in one chunk, read at int offsets by
+	 * backup(); null otherwise. Offsets and successors are also null for a dense model.
+	 */
+	private final ByteBuffer singleOffsets;
+
+	private final ByteBuffer singleSuccessors;
+
+	private final ByteBuffer singleProbabilities;
+
+	private final ByteBuffer singleRewards;
+
+	/**
+	 * Constructor. Allocates a sparse model with zeroed entries.
+	 *
+	 * @param index
+	 * @param rowLengths - number of entries of the row (s, a), at s * |A| + a.
+	 */
+	public OffHeapMDP(MDPIndex index, int[] rowLengths) {
+		this(index, prefixSums(rowLengths));
+	}
+
+	private OffHeapMDP(MDPIndex index, ChunkedBuffer rowOffsets) {
+		this(index, rowOffsets, ChunkedBuffer.allocate(4, rowOffsets.getLong(rowOffsets.size() - 1)),
+				ChunkedBuffer.allocate(8, rowOffsets.getLong(rowOffsets.size() - 1)),
+				ChunkedBuffer.allocate(8, rowOffsets.getLong(rowOffsets.size() - 1)));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param rowOffsets - |S| * |A| + 1 longs, or null for a dense model.
+	 * @param successors - null for a dense model.
+	 * @param probabilities
+	 * @param rewards
+	 */
+	protected OffHeapMDP(MDPIndex index, ChunkedBuffer rowOffsets, ChunkedBuffer successors,
+						 ChunkedBuffer probabilities, ChunkedBuffer rewards) {
+		this.index = index;
+		this.numStates = index.getNumStates();
+		this.numActions = index.getNumActions();
+		this.rowOffsets = rowOffsets;
+		this.successors = successors;
+		this.probabilities = probabilities;
+		this.rewards = rewards;
+		boolean single = probabilities.single() != null && rewards.single() != null
+				&& (rowOffsets == null || (rowOffsets.single() != null && successors.single() != null));
+		this.singleOffsets = single && rowOffsets != null ? rowOffsets.single() : null;
+		this.singleSuccessors = single && successors != null ? successors.single() : null;
+		this.singleProbabilities = single ? probabilities.single() : null;
+		this.singleRewards = single ? rewards.single() : null;
+	}
+
+	private static ChunkedBuffer prefixSums(int[] rowLengths) {
+		ChunkedBuffer ret = ChunkedBuffer.allocate(8, rowLengths.length + 1L);
+		long position = 0;
+		for (int r = 0; r < rowLengths.length; r++) {
+			ret.putLong(r, position);
+			position += rowLengths[r];
+		}
+		ret.putLong(rowLengths.length, position);
+		return ret;
+	}
+
+	/**
+	 * Copies a model off the heap, keeping the entries it stores.
+	 *
+	 * @param model
+	 * @return the copy, over the same index.
+	 */
+	public static OffHeapMDP copyOf(IndexedMDP model) {
+		int numActions = model.getNumActions();
+		int[] rowLengths = new int[model.getNumStates() * numActions];
+		for (int s = 0; s < model.getNumStates(); s++) {
+			for (int a = 0; a < numActions; a++) {
+				rowLengths[s * numActions + a] = (int) (model.rowEnd(s, a) - model.rowStart(s, a));
+			}
+		}
+		OffHeapMDP ret = new OffHeapMDP(model.getIndex(), rowLengths);
+		for (int s = 0; s < model.getNumStates(); s++) {
+			for (int a = 0; a < numActions; a++) {
+				long k = ret.rowStart(s, a);
+				for (long entry : sortedRow(model, s, a)) {
+					ret.set(k++, model.successor(entry), model.probability(entry), model.reward(entry));
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the entries of the row (s, a), by increasing successor id.
+	 */
+	static long[] sortedRow(IndexedMDP model, int s, int a) {
+		long start = model.rowStart(s, a);
+		long[] ret = new long[(int) (model.rowEnd(s, a) - start)];
+		boolean sorted = true;
+		for (int i = 0; i < ret.length; i++) {
+			// Successor in the high half, position in the row in the low half.
+			ret[i] = (long) model.successor(start + i) << 32 | i;
+			sorted &= i == 0 || ret[i - 1] < ret[i];
+		}
+		if (!sorted) {
+			Arrays.sort(ret);
+		}
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = start + (ret[i] & 0xffffffffL);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return whether the successors of every row of the model are stored by increasing id.
+	 */
+	static boolean isRowSorted(IndexedMDP model) {
+		for (int s = 0; s < model.getNumStates(); s++) {
+			for (int a = 0; a < model.getNumActions(); a++) {
+				for (long k = model.rowStart(s, a) + 1, end = model.rowEnd(s, a); k < end; k++) {
+					if (model.successor(k - 1) >= model.successor(k)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sets an entry of an allocated model. The successors of a row must be set in increasing
+	 * order, which getTransition() and getReward() rely on.
+	 *
+	 * @param k - in [rowStart(sFrom, a), rowEnd(sFrom, a)) for the row being filled.
+	 * @param sTo
+	 * @param probability
+	 * @param reward
+	 */
+	public void set(long k, int sTo, double probability, double reward) {
+		if (this.successors == null) {
+			throw new IllegalStateException("Dense models are read-only");
+		}
+		this.successors.putInt(k, sTo);
+		this.probabilities.putDouble(k, probability);
+		this.rewards.putDouble(k, reward);
+	}
+
+	/**
+	 * Wraps the model in an MDP, after checking that every row is a distribution.
+	 *
+	 * @return the MDP, backed by this model.
+	 * @throws MDPException
+	 */
+	public MDP toMDP() throws MDPException {
+		Set<State> states = new LinkedHashSet<>();
+		Set<Action> actions = new LinkedHashSet<>();
+		for (int s = 0; s < this.numStates; s++) {
+			states.add(this.index.getState(s));
+		}
+		for (int a = 0; a < this.numActions; a++) {
+			actions.add(this.index.getAction(a));
+		}
+		return new MDP(states, actions, this);
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return whether every successor is stored in every row.
+	 */
+	public boolean isDense() {
+		return this.rowOffsets == null;
+	}
+
+	@Override
+	public MDPIndex getIndex() {
+		return this.index;
+	}
+
+	@Override
+	public int getNumStates() {
+		return this.numStates;
+	}
+
+	@Override
+	public int getNumActions() {
+		return this.numActions;
+	}
+
+	@Override
+	public long rowStart(int sFrom, int a) {
+		long r = (long) sFrom * this.numActions + a;
+		return this.rowOffsets == null ? r * this.numStates : this.rowOffsets.getLong(r);
+	}
+
+	@Override
+	public long rowEnd(int sFrom, int a) {
+		long r = (long) sFrom * this.numActions + a;
+		return this.rowOffsets == null ? (r + 1) * this.numStates : this.rowOffsets.getLong(r + 1);
+	}
+
+	@Override
+	public int successor(long k) {
+		return this.successors == null ? (int) (k % this.numStates) : this.successors.getInt(k);
+	}
+
+	@Override
+	public double probability(long k) {
+		return this.probabilities.getDouble(k);
+	}
+
+	@Override
+	public double reward(long k) {
+		return this.rewards.getDouble(k);
+	}
+
+	@Override
+	public long getNumEntries() {
+		return this.probabilities.size();
+	}
+
+	@Override
+	public double getTransition(int sFrom, int sTo, int a) {
+		long k = this.find(sFrom, sTo, a);
+		return k < 0 ? 0.0 : this.probabilities.getDouble(k);
+	}
+
+	@Override
+	public double getReward(int sFrom, int sTo, int a) {
+		long k = this.find(sFrom, sTo, a);
+		return k < 0 ? 0.0 : this.rewards.getDouble(k);
+	}
+
+	@Override
+	public double backup(int sFrom, int a, double gamma, double[] V) {
+		ByteBuffer p = this.singleProbabilities;
+		if (p == null) {
+			return IndexedMDP.super.backup(sFrom, a, gamma, V);
+		}
+		// Every column fits in one buffer, so entries are read at int offsets.
+		ByteBuffer r = this.singleRewards;
+		int row = sFrom * this.numActions + a;
+		double sum = 0.0;
+		if (this.singleOffsets == null) {
+			int start = row * this.numStates;
+			for (int j = 0; j < this.numStates; j++) {
+				int k = start + j;
+				sum += p.getDouble(8 * k) * (r.getDouble(8 * k) + gamma * V[j]);
+			}
+		} else {
+			ByteBuffer successors = this.singleSuccessors;
+			int end = (int) this.singleOffsets.getLong(8 * row + 8);
+			for (int k = (int) this.singleOffsets.getLong(8 * row); k < end; k++) {
+				sum += p.getDouble(8 * k) * (r.getDouble(8 * k) + gamma * V[successors.getInt(4 * k)]);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double backup(int sFrom, int a, double gamma, ChunkedBuffer V) {
+		ByteBuffer p = this.singleProbabilities;
+		ByteBuffer values = V.single();
+		if (p == null || this.singleOffsets == null || values == null) {
+			return IndexedMDP.super.backup(sFrom, a, gamma, V);
+		}
+		ByteBuffer r = this.singleRewards;
+		ByteBuffer successors = this.singleSuccessors;
+		int row = sFrom * this.numActions + a;
+		int end = (int) this.singleOffsets.getLong(8 * row + 8);
+		double sum = 0.0;
+		for (int k = (int) this.singleOffsets.getLong(8 * row); k < end; k++) {
+			sum += p.getDouble(8 * k) * (r.getDouble(8 * k) + gamma * values.getDouble(8 * successors.getInt(4 * k)));
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the entry of sTo in the row (sFrom, a), or -1 if it is not stored.
+	 */
+	private long find(int sFrom, int sTo, int a) {
+		if (this.successors == null) {
+			return this.rowStart(sFrom, a) + sTo;
+		}
+		long lo = this.rowStart(sFrom, a);
+		long hi = this.rowEnd(sFrom, a) - 1;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			int sMid = this.successors.getInt(mid);
+			if (sMid < sTo) {
+				lo = mid + 1;
+			} else if (sMid > sTo) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+}
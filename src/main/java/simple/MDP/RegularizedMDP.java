@@ -0,0 +1,112 @@
+package simple.MDP;
+
+/**
+ * View of the blend (1 - epsilon) * P + epsilon * P_mean of two transition models sharing one
+ * layout: the entries, successors and rewards of a base model, plus a second probability for
+ * every entry. Blending costs nothing up front, so a family of models over many epsilons needs
+ * a single copy of the arrays.
+ */
+public class RegularizedMDP implements IndexedMDP {
+
+	/**
+	 * Layout, rewards and first probability of each entry.
+	 */
+	private final IndexedMDP base;
+
+	/**
+	 * Second probability of each entry, aligned with the entries of base.
+	 */
+	private final double[] mean;
+
+	/**
+	 * Weight of the second probability.
+	 */
+	private final double epsilon;
+
+	/**
+	 * Constructor. The array is used as is, not copied.
+	 *
+	 * @param base
+	 * @param mean - one probability per entry of base, each row summing to 1.
+	 * @param epsilon - in [0, 1].
+	 */
+	public RegularizedMDP(IndexedMDP base, double[] mean, double epsilon) {
+		if (mean.length < base.getNumEntries()) {
+			throw new IllegalArgumentException("Expected " + base.getNumEntries() + " mean probabilities but got " + mean.length);
+		}
+		if (epsilon < 0.0 || epsilon > 1.0) {
+			throw new IllegalArgumentException("epsilon must be in [0, 1], got " + epsilon);
+		}
+		this.base = base;
+		this.mean = mean;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	public MDPIndex getIndex() {
+		return this.base.getIndex();
+	}
+
+	@Override
+	public int getNumStates() {
+		return this.base.getNumStates();
+	}
+
+	@Override
+	public int getNumActions() {
+		return this.base.getNumActions();
+	}
+
+	@Override
+	public long rowStart(int sFrom, int a) {
+		return this.base.rowStart(sFrom, a);
+	}
+
+	@Override
+	public long rowEnd(int sFrom, int a) {
+		return this.base.rowEnd(sFrom, a);
+	}
+
+	@Override
+	public int successor(long k) {
+		return this.base.successor(k);
+	}
+
+	@Override
+	public double probability(long k) {
+		return (1 - this.epsilon) * this.base.probability(k) + this.epsilon * this.mean[(int) k];
+	}
+
+	@Override
+	public double reward(long k) {
+		return this.base.reward(k);
+	}
+
+	@Override
+	public long getNumEntries() {
+		return this.base.getNumEntries();
+	}
+
+	@Override
+	public double getReward(int sFrom, int sTo, int a) {
+		return this.base.getReward(sFrom, sTo, a);
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the weight of the second probability.
+	 */
+	public double getEpsilon() {
+		return this.epsilon;
+	}
+
+	/**
+	 * @param epsilon
+	 * @return the blend of the same two models with another weight, sharing this one's arrays.
+	 */
+	public RegularizedMDP withEpsilon(double epsilon) {
+		return new RegularizedMDP(this.base, this.mean, epsilon);
+	}
+
+}
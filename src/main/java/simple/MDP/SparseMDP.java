@@ -0,0 +1,227 @@
+package simple.MDP;
+
+/**
+ * Compressed-sparse-row representation of an simple.MDP. Only successors with a
+ * non-zero transition probability are stored, so memory and backup cost scale with
+ * the number of reachable successors instead of |S| per (sFrom, a) pair.
+ *
+ * Row (sFrom, a) occupies entries [rowOffsets[r], rowOffsets[r + 1]) with r = sFrom * |A| + a.
+ * Successors within a row are sorted by id.
+ */
+public class SparseMDP implements IndexedMDP {
+
+	/**
+	 * Largest number of elements of a Java array.
+	 */
+	private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Ids of states and actions.
+	 */
+	private final MDPIndex index;
+
+	/**
+	 * Number of states.
+	 */
+	private final int numStates;
+
+	/**
+	 * Number of actions, cached for row computations.
+	 */
+	private final int numActions;
+
+	/**
+	 * Position of the first entry of each row, plus one trailing position past the last entry.
+	 */
+	private final int[] rowOffsets;
+
+	/**
+	 * Successor state id of each entry.
+	 */
+	private final int[] successors;
+
+	/**
+	 * Transition probability of each entry.
+	 */
+	private final double[] probabilities;
+
+	/**
+	 * Reward of each entry.
+	 */
+	private final double[] rewards;
+
+	/**
+	 * Constructor. The arrays are used as is, not copied.
+	 *
+	 * @param index
+	 * @param rowOffsets - |S| * |A| + 1 row offsets.
+	 * @param successors
+	 * @param probabilities
+	 * @param rewards
+	 */
+	public SparseMDP(MDPIndex index, int[] rowOffsets, int[] successors, double[] probabilities, double[] rewards) {
+		this.index = index;
+		this.numStates = index.getNumStates();
+		this.numActions = index.getNumActions();
+		if (rowOffsets.length != this.numStates * this.numActions + 1) {
+			throw new IllegalArgumentException("Expected " + (this.numStates * this.numActions + 1) + " row offsets but got " + rowOffsets.length);
+		}
+		int nnz = rowOffsets[rowOffsets.length - 1];
+		if (successors.length < nnz || probabilities.length < nnz || rewards.length < nnz) {
+			throw new IllegalArgumentException("Entry arrays are shorter than the " + nnz + " entries referenced by the row offsets");
+		}
+		this.rowOffsets = rowOffsets;
+		this.successors = successors;
+		this.probabilities = probabilities;
+		this.rewards = rewards;
+	}
+
+	@Override
+	public MDPIndex getIndex() {
+		return this.index;
+	}
+
+	@Override
+	public int getNumStates() {
+		return this.numStates;
+	}
+
+	@Override
+	public int getNumActions() {
+		return this.numActions;
+	}
+
+	@Override
+	public long rowStart(int sFrom, int a) {
+		return this.rowOffsets[sFrom * this.numActions + a];
+	}
+
+	@Override
+	public long rowEnd(int sFrom, int a) {
+		return this.rowOffsets[sFrom * this.numActions + a + 1];
+	}
+
+	@Override
+	public int successor(long k) {
+		return this.successors[(int) k];
+	}
+
+	@Override
+	public double probability(long k) {
+		return this.probabilities[(int) k];
+	}
+
+	@Override
+	public double reward(long k) {
+		return this.rewards[(int) k];
+	}
+
+	@Override
+	public long getNumEntries() {
+		return this.rowOffsets[this.rowOffsets.length - 1];
+	}
+
+	@Override
+	public double getTransition(int sFrom, int sTo, int a) {
+		int k = this.find(sFrom, sTo, a);
+		return k < 0 ? 0.0 : this.probabilities[k];
+	}
+
+	@Override
+	public double getReward(int sFrom, int sTo, int a) {
+		int k = this.find(sFrom, sTo, a);
+		return k < 0 ? 0.0 : this.rewards[k];
+	}
+
+	@Override
+	public double backup(int sFrom, int a, double gamma, double[] V) {
+		int r = sFrom * this.numActions + a;
+		double sum = 0.0;
+		for (int k = this.rowOffsets[r], end = this.rowOffsets[r + 1]; k < end; k++) {
+			sum += this.probabilities[k] * (this.rewards[k] + gamma * V[this.successors[k]]);
+		}
+		return sum;
+	}
+
+	/**
+	 * Binary search of sTo within the row (sFrom, a).
+	 *
+	 * @param sFrom
+	 * @param sTo
+	 * @param a
+	 * @return the entry of sTo, or -1 if it is not reachable.
+	 */
+	private int find(int sFrom, int sTo, int a) {
+		int r = sFrom * this.numActions + a;
+		int lo = this.rowOffsets[r];
+		int hi = this.rowOffsets[r + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int sMid = this.successors[mid];
+			if (sMid < sTo) {
+				lo = mid + 1;
+			} else if (sMid > sTo) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds a sparse copy of any indexed model, dropping zero-probability entries.
+	 *
+	 * @param model
+	 * @return the sparse model.
+	 * @throws IllegalStateException if the non-zero entries do not fit in an array.
+	 */
+	public static SparseMDP fromIndexed(IndexedMDP model) {
+		int numStates = model.getNumStates();
+		int numActions = model.getNumActions();
+		checkSize((long) numStates * numActions + 1);
+		int[] rowOffsets = new int[numStates * numActions + 1];
+		long nnz = 0;
+		for (int s = 0; s < numStates; s++) {
+			for (int a = 0; a < numActions; a++) {
+				rowOffsets[s * numActions + a] = (int) nnz;
+				for (long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++) {
+					if (model.probability(k) != 0.0) {
+						nnz++;
+					}
+				}
+				checkSize(nnz);
+			}
+		}
+		rowOffsets[rowOffsets.length - 1] = (int) nnz;
+		int[] successors = new int[(int) nnz];
+		double[] probabilities = new double[successors.length];
+		double[] rewards = new double[successors.length];
+		int j = 0;
+		for (int s = 0; s < numStates; s++) {
+			for (int a = 0; a < numActions; a++) {
+				for (long k : OffHeapMDP.sortedRow(model, s, a)) {
+					double p = model.probability(k);
+					if (p != 0.0) {
+						successors[j] = model.successor(k);
+						probabilities[j] = p;
+						rewards[j] = model.reward(k);
+						j++;
+					}
+				}
+			}
+		}
+		return new SparseMDP(model.getIndex(), rowOffsets, successors, probabilities, rewards);
+	}
+
+	/**
+	 * @param size - number of elements of an array about to be allocated.
+	 * @throws IllegalStateException if they do not fit in an array.
+	 */
+	private static void checkSize(long size) {
+		if (size > MAX_ARRAY) {
+			throw new IllegalStateException("A sparse layout of " + size + " entries does not fit in an array, use OffHeapMDP");
+		}
+	}
+
+}
@@ -25,20 +25,37 @@ public class Trajectory {
     private final List<Double> rewards;
 
     /**
-     * Counter for the number of times a given state-action pair has been seen during the trajectory
+     * The states of the simple.MDP, for the per-trajectory counters
      */
-    private final Table<State, Action, Integer> stateActionCounter;
+    private final Set<State> mdpStates;
 
     /**
-     * Counter for the total reward observed for executing a given state-action pair during the trajectory
+     * The actions of the simple.MDP, for the per-trajectory counters
      */
-    private final Table<State, Action, Double> stateActionReward;
+    private final Set<Action> mdpActions;
+
+    /**
+     * Shared accumulator every step is recorded into, or null
+     */
+    private final TransitionCounts counts;
+
+    /**
+     * Counter for the number of times a given state-action pair has been seen during the trajectory.
+     * Built on first access, since it holds an entry for every state-action pair
+     */
+    private Table<State, Action, Integer> stateActionCounter;
+
+    /**
+     * Counter for the total reward observed for executing a given state-action pair during the trajectory.
+     * Built on first access
+     */
+    private Table<State, Action, Double> stateActionReward;
 
     /**
      * Counter for the number of times a given state-action pair has transitioned to a particular next state
-     * during the trajectory
+     * during the trajectory. Built on first access, since it holds an entry for every (s, a, s') triple
      */
-    private final Table<State, Action, Map<State, Integer>> stateActionTransition;
+    private Table<State, Action, Map<State, Integer>> stateActionTransition;
 
     /**
      * The length of this trajectory
@@ -46,22 +63,23 @@ public class Trajectory {
     protected int length;
 
     public Trajectory(Set<State> mdpStates, Set<Action> mdpActions){
+        this(mdpStates, mdpActions, null);
+    }
+
+    /**
+     * Constructor. Every step is also added to counts, which can be shared by many trajectories.
+     *
+     * @param mdpStates
+     * @param mdpActions
+     * @param counts - accumulator indexed over the same states and actions, or null.
+     */
+    public Trajectory(Set<State> mdpStates, Set<Action> mdpActions, TransitionCounts counts){
         this.states = new ArrayList<>();
         this.actions = new ArrayList<>();
         this.rewards = new ArrayList<>();
-        this.stateActionCounter = HashBasedTable.create();
-        this.stateActionReward = HashBasedTable.create();
-        this.stateActionTransition = HashBasedTable.create();
-        for(State s : mdpStates){
-            for(Action a : mdpActions){
-                this.stateActionCounter.put(s, a, 0);
-                this.stateActionReward.put(s, a, 0.0);
-                this.stateActionTransition.put(s, a, new HashMap<>());
-                for(State sprime : mdpStates){
-                    this.stateActionTransition.get(s, a).put(sprime, 0);
-                }
-            }
-        }
+        this.mdpStates = mdpStates;
+        this.mdpActions = mdpActions;
+        this.counts = counts;
         this.length = 0;
     }
 
@@ -70,19 +88,14 @@ public class Trajectory {
     }
 
     public void step(Action a, double r, State sprime){
-        //Update bookkeeping for state-action tracker
         State current = this.states.get(this.states.size()-1);
-        int currentCount = this.stateActionCounter.get(current, a);
-        this.stateActionCounter.put(current, a, currentCount + 1);
-
-        //Update bookkeeping for reward tracker
-        double currentReward = this.stateActionReward.get(current, a);
-        this.stateActionReward.put(current, a, currentReward + r);
-
-        //Update bookkeeping for state-action transition tracker
-        Map<State, Integer> currentTransCount = this.stateActionTransition.get(current, a);
-        currentTransCount.put(sprime, currentTransCount.get(sprime) + 1);
-        this.stateActionTransition.put(current, a, currentTransCount);
+        if(this.counts != null){
+            this.counts.add(current, a, r, sprime);
+        }
+        //Per-trajectory counters are rebuilt on the next access
+        this.stateActionCounter = null;
+        this.stateActionReward = null;
+        this.stateActionTransition = null;
 
         this.states.add(sprime);
         this.actions.add(a);
@@ -90,6 +103,47 @@ public class Trajectory {
         this.length += 1;
     }
 
+    /**
+     * Adds every step of this trajectory to the given accumulator.
+     *
+     * @param target
+     */
+    public void addTo(TransitionCounts target){
+        for(int i = 0; i < this.length; i++){
+            target.add(this.states.get(i), this.actions.get(i), this.rewards.get(i), this.states.get(i + 1));
+        }
+    }
+
+    /**
+     * Fills in the per-trajectory counters from the recorded steps.
+     */
+    private void buildCounters(){
+        Table<State, Action, Integer> counter = HashBasedTable.create();
+        Table<State, Action, Double> reward = HashBasedTable.create();
+        Table<State, Action, Map<State, Integer>> transition = HashBasedTable.create();
+        for(State s : this.mdpStates){
+            for(Action a : this.mdpActions){
+                counter.put(s, a, 0);
+                reward.put(s, a, 0.0);
+                Map<State, Integer> next = new HashMap<>();
+                for(State sprime : this.mdpStates){
+                    next.put(sprime, 0);
+                }
+                transition.put(s, a, next);
+            }
+        }
+        for(int i = 0; i < this.length; i++){
+            State current = this.states.get(i);
+            Action a = this.actions.get(i);
+            counter.put(current, a, counter.get(current, a) + 1);
+            reward.put(current, a, reward.get(current, a) + this.rewards.get(i));
+            Map<State, Integer> next = transition.get(current, a);
+            next.merge(this.states.get(i + 1), 1, Integer::sum);
+        }
+        this.stateActionCounter = counter;
+        this.stateActionReward = reward;
+        this.stateActionTransition = transition;
+    }
 
     public List<State> getStates() {
         return this.states;
@@ -104,17 +158,30 @@ public class Trajectory {
     }
 
     public Table<State, Action, Integer> getStateActionCounter() {
+        if(this.stateActionCounter == null){
+            this.buildCounters();
+        }
         return this.stateActionCounter;
     }
 
     public Table<State, Action, Double> getStateActionReward() {
+        if(this.stateActionReward == null){
+            this.buildCounters();
+        }
         return this.stateActionReward;
     }
 
     public Table<State, Action, Map<State, Integer>> getStateActionTransition() {
+        if(this.stateActionTransition == null){
+            this.buildCounters();
+        }
         return this.stateActionTransition;
     }
 
+    public TransitionCounts getCounts() {
+        return this.counts;
+    }
+
     public int getLength() {
         return this.length;
     }
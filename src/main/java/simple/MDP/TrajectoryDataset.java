@@ -0,0 +1,374 @@
+package simple.MDP;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of trajectories stored by columns: the state ids, action ids and rewards of all the
+ * trajectories are concatenated into one primitive column each, and trajectory t spans the steps
+ * offsets[t] to offsets[t + 1]. Its states are at offsets[t] + t to offsets[t + 1] + t, since a
+ * trajectory of length L visits L + 1 states. Ids are those of an MDPIndex.
+ *
+ * A dataset is grown with start() and step(), like a Trajectory, written with write(), and read
+ * back with map(), which serves the columns straight from the page cache without copying them.
+ * Mapped datasets are read-only.
+ *
+ * File layout, little-endian: a header of MAGIC, VERSION, the fingerprint of the index, the
+ * number of states, actions, trajectories and steps, then the offsets, states and actions as
+ * ints and the rewards as doubles, each column starting on an 8-byte boundary.
+ */
+public class TrajectoryDataset {
+
+	/**
+	 * First bytes of a dataset file, "TRJD".
+	 */
+	public static final int MAGIC = 0x54524a44;
+
+	public static final int VERSION = 1;
+
+	/**
+	 * Bytes of the header.
+	 */
+	private static final int HEADER_BYTES = 40;
+
+	/**
+	 * Ids of the states and actions.
+	 */
+	private final MDPIndex index;
+
+	/**
+	 * First step of each trajectory, and the total number of steps after the last one.
+	 */
+	private IntBuffer offsets;
+
+	/**
+	 * Visited state ids.
+	 */
+	private IntBuffer states;
+
+	/**
+	 * Action id of each step.
+	 */
+	private IntBuffer actions;
+
+	/**
+	 * Reward of each step.
+	 */
+	private DoubleBuffer rewards;
+
+	/**
+	 * Number of trajectories, including one being grown.
+	 */
+	private int numTrajectories;
+
+	/**
+	 * Number of steps.
+	 */
+	private int numSteps;
+
+	/**
+	 * Whether the columns are mapped from a file.
+	 */
+	private final boolean mapped;
+
+	/**
+	 * Constructor. Creates an empty dataset.
+	 *
+	 * @param index
+	 */
+	public TrajectoryDataset(MDPIndex index) {
+		this.index = index;
+		this.offsets = IntBuffer.allocate(16);
+		this.states = IntBuffer.allocate(64);
+		this.actions = IntBuffer.allocate(64);
+		this.rewards = DoubleBuffer.allocate(64);
+		this.mapped = false;
+	}
+
+	private TrajectoryDataset(MDPIndex index, IntBuffer offsets, IntBuffer states, IntBuffer actions,
+							  DoubleBuffer rewards, int numTrajectories, int numSteps) {
+		this.index = index;
+		this.offsets = offsets;
+		this.states = states;
+		this.actions = actions;
+		this.rewards = rewards;
+		this.numTrajectories = numTrajectories;
+		this.numSteps = numSteps;
+		this.mapped = true;
+	}
+
+	/**
+	 * Starts a new trajectory.
+	 *
+	 * @param s - id of the first state.
+	 */
+	public void start(int s) {
+		this.checkWritable();
+		this.offsets = ensure(this.offsets, this.numTrajectories + 2);
+		this.offsets.put(this.numTrajectories, this.numSteps);
+		this.offsets.put(this.numTrajectories + 1, this.numSteps);
+		this.states = ensure(this.states, this.numSteps + this.numTrajectories + 1);
+		this.states.put(this.numSteps + this.numTrajectories, s);
+		this.numTrajectories++;
+	}
+
+	public void start(State s) {
+		this.start(this.index.getStateIndex(s));
+	}
+
+	/**
+	 * Appends a step to the last trajectory.
+	 *
+	 * @param a
+	 * @param r
+	 * @param sNext
+	 */
+	public void step(int a, double r, int sNext) {
+		this.checkWritable();
+		if (this.numTrajectories == 0) {
+			throw new IllegalStateException("No trajectory was started");
+		}
+		this.actions = ensure(this.actions, this.numSteps + 1);
+		this.rewards = ensure(this.rewards, this.numSteps + 1);
+		this.states = ensure(this.states, this.numSteps + this.numTrajectories + 1);
+		this.actions.put(this.numSteps, a);
+		this.rewards.put(this.numSteps, r);
+		this.states.put(this.numSteps + this.numTrajectories, sNext);
+		this.numSteps++;
+		this.offsets.put(this.numTrajectories, this.numSteps);
+	}
+
+	public void step(Action a, double r, State sNext) {
+		this.step(this.index.getActionIndex(a), r, this.index.getStateIndex(sNext));
+	}
+
+	/**
+	 * Appends a trajectory.
+	 *
+	 * @param trajectory
+	 */
+	public void add(Trajectory trajectory) {
+		List<State> visited = trajectory.getStates();
+		this.start(visited.get(0));
+		for (int i = 0; i < trajectory.getLength(); i++) {
+			this.step(trajectory.getActions().get(i), trajectory.getRewards().get(i), visited.get(i + 1));
+		}
+	}
+
+	public void addAll(List<Trajectory> data) {
+		for (Trajectory t : data) {
+			this.add(t);
+		}
+	}
+
+	/**
+	 * Adds every step of the dataset to the given accumulator.
+	 *
+	 * @param target - accumulator over the same index.
+	 */
+	public void addTo(TransitionCounts target) {
+		for (int t = 0; t < this.numTrajectories; t++) {
+			int begin = this.offsets.get(t);
+			int end = this.offsets.get(t + 1);
+			for (int i = begin; i < end; i++) {
+				target.add(this.states.get(i + t), this.actions.get(i), this.rewards.get(i), this.states.get(i + t + 1));
+			}
+		}
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the transition counts of the dataset.
+	 */
+	public TransitionCounts getCounts() {
+		TransitionCounts ret = new TransitionCounts(this.index);
+		this.addTo(ret);
+		return ret;
+	}
+
+	/**
+	 * @param t
+	 * @return trajectory t as a Trajectory object, for code that needs one.
+	 */
+	public Trajectory getTrajectory(int t) {
+		Set<State> stateSet = new LinkedHashSet<>();
+		Set<Action> actionSet = new LinkedHashSet<>();
+		for (int s = 0; s < this.index.getNumStates(); s++) {
+			stateSet.add(this.index.getState(s));
+		}
+		for (int a = 0; a < this.index.getNumActions(); a++) {
+			actionSet.add(this.index.getAction(a));
+		}
+		Trajectory ret = new Trajectory(stateSet, actionSet);
+		ret.intialize(this.index.getState(this.getState(t, 0)));
+		for (int i = 0; i < this.getLength(t); i++) {
+			ret.step(this.index.getAction(this.getAction(t, i)), this.getReward(t, i), this.index.getState(this.getState(t, i + 1)));
+		}
+		return ret;
+	}
+
+	public int getNumTrajectories() {
+		return this.numTrajectories;
+	}
+
+	public int getNumSteps() {
+		return this.numSteps;
+	}
+
+	/**
+	 * @param t
+	 * @return the number of steps of trajectory t.
+	 */
+	public int getLength(int t) {
+		return this.offsets.get(t + 1) - this.offsets.get(t);
+	}
+
+	/**
+	 * @param t
+	 * @param i - in [0, getLength(t)].
+	 * @return the id of the i-th state of trajectory t.
+	 */
+	public int getState(int t, int i) {
+		return this.states.get(this.offsets.get(t) + t + i);
+	}
+
+	/**
+	 * @param t
+	 * @param i - in [0, getLength(t)).
+	 * @return the id of the i-th action of trajectory t.
+	 */
+	public int getAction(int t, int i) {
+		return this.actions.get(this.offsets.get(t) + i);
+	}
+
+	/**
+	 * @param t
+	 * @param i - in [0, getLength(t)).
+	 * @return the i-th reward of trajectory t.
+	 */
+	public double getReward(int t, int i) {
+		return this.rewards.get(this.offsets.get(t) + i);
+	}
+
+	public MDPIndex getIndex() {
+		return this.index;
+	}
+
+	public boolean isMapped() {
+		return this.mapped;
+	}
+
+	/**
+	 * Writes the dataset to a file, sequentially.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		try (BinaryWriter out = new BinaryWriter(file)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(this.index.getFingerprint());
+			out.writeInt(this.index.getNumStates());
+			out.writeInt(this.index.getNumActions());
+			out.writeInt(this.numTrajectories);
+			out.writeInt(this.numSteps);
+			out.writeLong(0L);
+			for (int t = 0; t <= this.numTrajectories; t++) {
+				out.writeInt(this.numTrajectories == 0 ? 0 : this.offsets.get(t));
+			}
+			out.pad();
+			for (int i = 0; i < this.numSteps + this.numTrajectories; i++) {
+				out.writeInt(this.states.get(i));
+			}
+			out.pad();
+			for (int i = 0; i < this.numSteps; i++) {
+				out.writeInt(this.actions.get(i));
+			}
+			out.pad();
+			for (int i = 0; i < this.numSteps; i++) {
+				out.writeDouble(this.rewards.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Maps a dataset file. The columns are read from the page cache on access, and stay valid
+	 * after the file is closed.
+	 *
+	 * @param file
+	 * @param index - the index the dataset was written with.
+	 * @return the read-only dataset.
+	 * @throws IOException
+	 */
+	public static TrajectoryDataset map(File file, MDPIndex index) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(file + " is not a version " + VERSION + " trajectory dataset");
+			}
+			if (header.getLong(8) != index.getFingerprint() || header.getInt(16) != index.getNumStates()
+					|| header.getInt(20) != index.getNumActions()) {
+				throw new IOException(file + " was written with the ids of another MDP");
+			}
+			int numTrajectories = header.getInt(24);
+			int numSteps = header.getInt(28);
+			long position = HEADER_BYTES;
+			IntBuffer offsets = mapInts(channel, position, numTrajectories + 1);
+			position = align(position + 4L * (numTrajectories + 1));
+			IntBuffer states = mapInts(channel, position, numSteps + numTrajectories);
+			position = align(position + 4L * (numSteps + numTrajectories));
+			IntBuffer actions = mapInts(channel, position, numSteps);
+			position = align(position + 4L * numSteps);
+			DoubleBuffer rewards = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * numSteps)
+					.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			return new TrajectoryDataset(index, offsets, states, actions, rewards, numTrajectories, numSteps);
+		}
+	}
+
+	private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private void checkWritable() {
+		if (this.mapped) {
+			throw new IllegalStateException("Mapped datasets are read-only");
+		}
+	}
+
+	/**
+	 * Grows a column to hold at least the given number of entries.
+	 */
+	private static IntBuffer ensure(IntBuffer column, int size) {
+		if (size <= column.capacity()) {
+			return column;
+		}
+		IntBuffer ret = IntBuffer.allocate(Math.max(size, 2 * column.capacity()));
+		ret.put(column.array(), 0, column.capacity());
+		return ret;
+	}
+
+	private static DoubleBuffer ensure(DoubleBuffer column, int size) {
+		if (size <= column.capacity()) {
+			return column;
+		}
+		DoubleBuffer ret = DoubleBuffer.allocate(Math.max(size, 2 * column.capacity()));
+		ret.put(column.array(), 0, column.capacity());
+		return ret;
+	}
+
+}
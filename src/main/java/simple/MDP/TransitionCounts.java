@@ -0,0 +1,304 @@
+package simple.MDP;
+
+import java.util.Arrays;
+
+/**
+ * Sufficient statistics of observed transitions of an simple.MDP: for every (s, a) the number of
+ * visits and the sum of the rewards received, and for every (s, a, s') the number of transitions.
+ * Counts live in primitive arrays indexed by the ids of an MDPIndex, rows by s * |A| + a.
+ *
+ * Next-state counts are either a dense S * A * S array or, for large state spaces, a growable list
+ * of (s', count) per row holding only the successors actually observed.
+ */
+public class TransitionCounts {
+
+	/**
+	 * Largest S * A * S for which next-state counts are dense by default.
+	 */
+	public static final long DENSE_LIMIT = 1L << 22;
+
+	/**
+	 * Receives the observed successors of a row.
+	 */
+	public interface SuccessorConsumer {
+
+		/**
+		 * @param sNext - successor state id.
+		 * @param count - number of transitions to it, positive.
+		 */
+		void accept(int sNext, int count);
+	}
+
+	/**
+	 * Ids of the states and actions.
+	 */
+	private final MDPIndex index;
+
+	/**
+	 * Number of states.
+	 */
+	private final int numStates;
+
+	/**
+	 * Number of actions.
+	 */
+	private final int numActions;
+
+	/**
+	 * Whether next-state counts are kept per observed successor.
+	 */
+	private final boolean sparse;
+
+	/**
+	 * Number of visits of each row.
+	 */
+	private final int[] visits;
+
+	/**
+	 * Sum of the rewards received in each row.
+	 */
+	private final double[] rewardSums;
+
+	/**
+	 * Dense next-state counts, by (s * |A| + a) * |S| + s'. Null when sparse.
+	 */
+	private final int[] nextCounts;
+
+	/**
+	 * Observed successors of each row, the first rowSizes[row] entries are used. Null when dense.
+	 */
+	private final int[][] successors;
+
+	/**
+	 * Transition count of each observed successor, aligned with successors. Null when dense.
+	 */
+	private final int[][] successorCounts;
+
+	/**
+	 * Number of observed successors of each row. Null when dense.
+	 */
+	private final int[] rowSizes;
+
+	/**
+	 * Total number of transitions added.
+	 */
+	private long total;
+
+	/**
+	 * Constructor. Next-state counts are dense when S * A * S is at most DENSE_LIMIT.
+	 *
+	 * @param index
+	 */
+	public TransitionCounts(MDPIndex index) {
+		this(index, (long) index.getNumStates() * index.getNumActions() * index.getNumStates() > DENSE_LIMIT);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param index
+	 * @param sparse - whether next-state counts are kept only for observed successors.
+	 */
+	public TransitionCounts(MDPIndex index, boolean sparse) {
+		this.index = index;
+		this.numStates = index.getNumStates();
+		this.numActions = index.getNumActions();
+		this.sparse = sparse;
+		int rows = this.numStates * this.numActions;
+		this.visits = new int[rows];
+		this.rewardSums = new double[rows];
+		if (sparse) {
+			this.nextCounts = null;
+			this.successors = new int[rows][];
+			this.successorCounts = new int[rows][];
+			this.rowSizes = new int[rows];
+		} else {
+			long size = (long) rows * this.numStates;
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many (s, a, s') triples for dense counts: " + size);
+			}
+			this.nextCounts = new int[(int) size];
+			this.successors = null;
+			this.successorCounts = null;
+			this.rowSizes = null;
+		}
+	}
+
+	/**
+	 * Records one transition.
+	 *
+	 * @param s
+	 * @param a
+	 * @param r
+	 * @param sNext
+	 */
+	public void add(int s, int a, double r, int sNext) {
+		this.add(s, a, r, sNext, 1);
+	}
+
+	/**
+	 * Records one transition.
+	 *
+	 * @param s
+	 * @param a
+	 * @param r
+	 * @param sNext
+	 */
+	public void add(State s, Action a, double r, State sNext) {
+		this.add(this.index.getStateIndex(s), this.index.getActionIndex(a), r, this.index.getStateIndex(sNext), 1);
+	}
+
+	/**
+	 * Adds all the counts of another accumulator over the same index.
+	 *
+	 * @param other
+	 */
+	public void addAll(TransitionCounts other) {
+		if (other.numStates != this.numStates || other.numActions != this.numActions) {
+			throw new IllegalArgumentException("Counts are over different state or action spaces");
+		}
+		for (int row = 0; row < this.visits.length; row++) {
+			if (other.visits[row] == 0) {
+				continue;
+			}
+			this.visits[row] += other.visits[row];
+			this.rewardSums[row] += other.rewardSums[row];
+			int target = row;
+			other.forEachSuccessor(row / this.numActions, row % this.numActions,
+					(sNext, count) -> this.addNext(target, sNext, count));
+		}
+		this.total += other.total;
+	}
+
+	/**
+	 * @param s
+	 * @param a
+	 * @param r - sum of the rewards of the transitions.
+	 * @param sNext
+	 * @param count - number of transitions.
+	 */
+	private void add(int s, int a, double r, int sNext, int count) {
+		int row = s * this.numActions + a;
+		this.visits[row] += count;
+		this.rewardSums[row] += r;
+		this.addNext(row, sNext, count);
+		this.total += count;
+	}
+
+	private void addNext(int row, int sNext, int count) {
+		if (!this.sparse) {
+			this.nextCounts[row * this.numStates + sNext] += count;
+			return;
+		}
+		int[] succ = this.successors[row];
+		int size = this.rowSizes[row];
+		// Rows have few distinct successors, a linear scan beats hashing.
+		for (int i = 0; i < size; i++) {
+			if (succ[i] == sNext) {
+				this.successorCounts[row][i] += count;
+				return;
+			}
+		}
+		if (succ == null) {
+			this.successors[row] = succ = new int[4];
+			this.successorCounts[row] = new int[4];
+		} else if (size == succ.length) {
+			this.successors[row] = succ = Arrays.copyOf(succ, 2 * size);
+			this.successorCounts[row] = Arrays.copyOf(this.successorCounts[row], 2 * size);
+		}
+		succ[size] = sNext;
+		this.successorCounts[row][size] = count;
+		this.rowSizes[row] = size + 1;
+	}
+
+	/**
+	 * Calls the consumer once for each successor observed from (s, a), in no particular order.
+	 *
+	 * @param s
+	 * @param a
+	 * @param consumer
+	 */
+	public void forEachSuccessor(int s, int a, SuccessorConsumer consumer) {
+		int row = s * this.numActions + a;
+		if (this.visits[row] == 0) {
+			return;
+		}
+		if (this.sparse) {
+			int[] succ = this.successors[row];
+			int[] counts = this.successorCounts[row];
+			for (int i = 0, size = this.rowSizes[row]; i < size; i++) {
+				consumer.accept(succ[i], counts[i]);
+			}
+		} else {
+			int offset = row * this.numStates;
+			for (int sNext = 0; sNext < this.numStates; sNext++) {
+				int count = this.nextCounts[offset + sNext];
+				if (count != 0) {
+					consumer.accept(sNext, count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param s
+	 * @param a
+	 * @return the number of times a was taken in s.
+	 */
+	public int getCount(int s, int a) {
+		return this.visits[s * this.numActions + a];
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param s
+	 * @param a
+	 * @param sNext
+	 * @return the number of times taking a in s led to sNext.
+	 */
+	public int getCount(int s, int a, int sNext) {
+		int row = s * this.numActions + a;
+		if (!this.sparse) {
+			return this.nextCounts[row * this.numStates + sNext];
+		}
+		int[] succ = this.successors[row];
+		for (int i = 0, size = this.rowSizes[row]; i < size; i++) {
+			if (succ[i] == sNext) {
+				return this.successorCounts[row][i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @param s
+	 * @param a
+	 * @return the sum of the rewards received when taking a in s.
+	 */
+	public double getRewardSum(int s, int a) {
+		return this.rewardSums[s * this.numActions + a];
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the total number of transitions added.
+	 */
+	public long getTotal() {
+		return this.total;
+	}
+
+	public MDPIndex getIndex() {
+		return this.index;
+	}
+
+	public boolean isSparse() {
+		return this.sparse;
+	}
+
+}
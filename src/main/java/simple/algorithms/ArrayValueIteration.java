@@ -0,0 +1,437 @@
+package simple.algorithms;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import simple.MDP.Action;
+import simple.MDP.DumpWriter;
+import simple.MDP.IndexedMDP;
+import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
+import simple.MDP.OffHeapMDP;
+import simple.MDP.State;
+import simple.sample.RandomStreams;
+
+/**
+ * Value Iteration over an int-indexed simple.MDP. V, Q and the policy live in SolverBuffers
+ * indexed by state id and s * |A| + a, so sweeps do not allocate. The buffers are primitive arrays,
+ * or, for models too large for the Java heap, ChunkedBuffers outside it, indexed by longs.
+ * The value of a state is derived from its Q-values by a pluggable BackupKernel.
+ *
+ * Models with at least parallelThreshold states are swept in parallel: states are split
+ * into chunks run on a ForkJoinPool, and the sweep is Jacobi-style whatever the update order,
+ * so results do not depend on scheduling.
+ */
+public class ArrayValueIteration {
+
+	/**
+	 * Order in which a sweep updates the value function.
+	 */
+	public enum UpdateOrder {
+		/**
+		 * Every backup of a sweep reads the values of the previous sweep.
+		 */
+		JACOBI,
+		/**
+		 * Backups read values already updated earlier in the same sweep.
+		 */
+		GAUSS_SEIDEL
+	}
+
+	/**
+	 * Where V, Q and the policy are kept.
+	 */
+	public enum Storage {
+		/**
+		 * Primitive arrays on the heap.
+		 */
+		HEAP,
+		/**
+		 * ChunkedBuffers outside the heap, so |S| * |A| may exceed 2^31 and garbage collection costs
+		 * the same whatever the size of the model.
+		 */
+		OFF_HEAP;
+
+		/**
+		 * @param model
+		 * @return OFF_HEAP for a model stored off the heap or whose Q function does not fit in an array, HEAP otherwise.
+		 */
+		public static Storage of(IndexedMDP model) {
+			long numQ = (long) model.getNumStates() * model.getNumActions();
+			return model instanceof OffHeapMDP || numQ > Integer.MAX_VALUE - 8 ? OFF_HEAP : HEAP;
+		}
+	}
+
+	/**
+	 * The model being solved.
+	 */
+	private final IndexedMDP model;
+
+	/**
+	 * There is a value of gamma.
+	 */
+	private final double gamma;
+
+	/**
+	 * Combines Q-values into state values.
+	 */
+	private final BackupKernel kernel;
+
+	/**
+	 * Sweep update order.
+	 */
+	private final UpdateOrder order;
+
+	/**
+	 * The V function, by state id.
+	 */
+	private SolverBuffer V;
+
+	/**
+	 * Write buffer of Jacobi sweeps.
+	 */
+	private SolverBuffer nextV;
+
+	/**
+	 * The Q function, by s * |A| + a.
+	 */
+	private final SolverBuffer Q;
+
+	/**
+	 * Greedy action id of each state, filled in by computePolicy().
+	 */
+	private final SolverBuffer P;
+
+	private final Storage storage;
+
+	/**
+	 * Number of sweeps performed by the last call to run().
+	 */
+	private int iterations;
+
+	/**
+	 * Tolerance parameter.
+	 */
+	private double tolerance = 0.0001;
+
+	/**
+	 * Max iteration parameter.
+	 */
+	private int maxIter = 10000;
+
+	/**
+	 * Minimum number of states for sweeps to run in parallel.
+	 */
+	private int parallelThreshold = 10000;
+
+	/**
+	 * Pool running parallel sweeps.
+	 */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Constructor. Uses the max backup and Gauss-Seidel sweeps.
+	 *
+	 * @param mdp
+	 * @param gamma
+	 */
+	public ArrayValueIteration(MDP mdp, double gamma) {
+		this(mdp.compile(), gamma, BackupKernel.MAX, UpdateOrder.GAUSS_SEIDEL);
+	}
+
+	/**
+	 * Constructor. Keeps V, Q and the policy on the heap.
+	 *
+	 * @param model
+	 * @param gamma
+	 * @param kernel
+	 * @param order
+	 */
+	public ArrayValueIteration(IndexedMDP model, double gamma, BackupKernel kernel, UpdateOrder order) {
+		this(model, gamma, kernel, order, Storage.HEAP);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model
+	 * @param gamma
+	 * @param kernel
+	 * @param order
+	 * @param storage - where V, Q and the policy are kept.
+	 */
+	public ArrayValueIteration(IndexedMDP model, double gamma, BackupKernel kernel, UpdateOrder order, Storage storage) {
+		this.model = model;
+		this.gamma = gamma;
+		this.kernel = kernel;
+		this.order = order;
+		this.storage = storage;
+		this.V = SolverBuffer.allocate(storage, 8, model.getNumStates());
+		this.Q = SolverBuffer.allocate(storage, 8, (long) model.getNumStates() * model.getNumActions());
+		this.P = SolverBuffer.allocate(storage, 4, model.getNumStates());
+	}
+
+	/**
+	 * Runs sweeps until no state value changes by more than the tolerance, or maxIter sweeps.
+	 */
+	public void run() {
+		int numStates = this.model.getNumStates();
+		boolean parallel = numStates >= this.parallelThreshold && this.pool.getParallelism() > 1;
+		boolean doubleBuffered = parallel || this.order == UpdateOrder.JACOBI;
+		if (doubleBuffered && this.nextV == null) {
+			this.nextV = SolverBuffer.allocate(this.storage, 8, numStates);
+		}
+		int chunk = Math.max(64, numStates / (8 * this.pool.getParallelism()));
+		int i = 0;
+		boolean convergence = false;
+		while (i < this.maxIter && !convergence) {
+			SolverBuffer read = this.V;
+			SolverBuffer write = doubleBuffered ? this.nextV : this.V;
+			double maxDiff;
+			if (parallel) {
+				maxDiff = this.pool.invoke(new SweepTask(0, numStates, chunk, read, write));
+			} else {
+				maxDiff = this.sweep(0, numStates, read, write);
+			}
+			if (doubleBuffered) {
+				this.nextV = this.V;
+				this.V = write;
+			}
+			convergence = maxDiff <= this.tolerance;
+			i++;
+		}
+		this.iterations = i;
+	}
+
+	/**
+	 * Backs up the states in [from, to).
+	 *
+	 * @param from
+	 * @param to
+	 * @param read - values the backups read.
+	 * @param write - where the new values go, possibly the same buffer as read.
+	 * @return the largest change of a state value.
+	 */
+	private double sweep(int from, int to, SolverBuffer read, SolverBuffer write) {
+		int numActions = this.model.getNumActions();
+		// The Q-values of a state are gathered here for the kernel.
+		double[] q = new double[numActions];
+		double maxDiff = 0.0;
+		for (int s = from; s < to; s++) {
+			long offset = (long) s * numActions;
+			for (int a = 0; a < numActions; a++) {
+				q[a] = read.backup(this.model, s, a, this.gamma);
+				this.Q.putDouble(offset + a, q[a]);
+			}
+			double v = this.kernel.value(q, 0, numActions);
+			double diff = Math.abs(v - read.getDouble(s));
+			if (diff > maxDiff) {
+				maxDiff = diff;
+			}
+			write.putDouble(s, v);
+		}
+		return maxDiff;
+	}
+
+	/**
+	 * Splits a sweep over [from, to) into chunks, returning the largest value change.
+	 */
+	@SuppressWarnings("serial")
+	private class SweepTask extends RecursiveTask<Double> {
+
+		private final int from;
+		private final int to;
+		private final int chunk;
+		private final SolverBuffer read;
+		private final SolverBuffer write;
+
+		SweepTask(int from, int to, int chunk, SolverBuffer read, SolverBuffer write) {
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.read = read;
+			this.write = write;
+		}
+
+		@Override
+		protected Double compute() {
+			if (this.to - this.from <= this.chunk) {
+				return sweep(this.from, this.to, this.read, this.write);
+			}
+			int mid = (this.from + this.to) >>> 1;
+			SweepTask left = new SweepTask(this.from, mid, this.chunk, this.read, this.write);
+			left.fork();
+			double right = new SweepTask(mid, this.to, this.chunk, this.read, this.write).compute();
+			return Math.max(left.join(), right);
+		}
+	}
+
+	/**
+	 * Compute the greedy policy induced by the current Q function. Ties are broken uniformly at random.
+	 */
+	public void computePolicy() {
+		int numActions = this.model.getNumActions();
+		SplittableRandom rnd = RandomStreams.current();
+		for (int s = 0; s < this.model.getNumStates(); s++) {
+			long offset = (long) s * numActions;
+			int best = 0;
+			double maxQ = this.Q.getDouble(offset);
+			int ties = 1;
+			for (int a = 1; a < numActions; a++) {
+				double q = this.Q.getDouble(offset + a);
+				if (q > maxQ) {
+					best = a;
+					maxQ = q;
+					ties = 1;
+				} else if (q == maxQ && rnd.nextInt(++ties) == 0) {
+					best = a;
+				}
+			}
+			this.P.putInt(s, best);
+		}
+	}
+
+	/**
+	 * Seeds the value function, e.g. with the solution of a related problem.
+	 *
+	 * @param values - value of each state, by id.
+	 */
+	public void setValues(double[] values) {
+		for (int s = 0; s < values.length; s++) {
+			this.V.putDouble(s, values[s]);
+		}
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setMaxIterations(int maxIter) {
+		this.maxIter = maxIter;
+	}
+
+	/**
+	 * Models with fewer states than the threshold are swept sequentially.
+	 *
+	 * @param parallelThreshold
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public IndexedMDP getModel() {
+		return this.model;
+	}
+
+	public double getGamma() {
+		return this.gamma;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the V function by state id. The buffer is live, not a copy, but double-buffered
+	 * sweeps swap it with a second buffer, so fetch it again after run().
+	 */
+	public SolverBuffer getValues() {
+		return this.V;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the Q function by s * |A| + a. The buffer is live, not a copy.
+	 */
+	public SolverBuffer getQValues() {
+		return this.Q;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the greedy action id of each state, as of the last computePolicy().
+	 */
+	public SolverBuffer getPolicyIndices() {
+		return this.P;
+	}
+
+	public double getValue(int s) {
+		return this.V.getDouble(s);
+	}
+
+	public double getQValue(int s, int a) {
+		return this.Q.getDouble((long) s * this.model.getNumActions() + a);
+	}
+
+	public int getAction(int s) {
+		return this.P.getInt(s);
+	}
+
+	/**
+	 * Streams the V function, the Q function and the policy as of the last computePolicy().
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void dump(DumpWriter out) throws IOException {
+		MDPIndex index = this.model.getIndex();
+		out.writeValues(index, this::getValue);
+		out.writeQValues(index, this::getQValue);
+		out.writePolicy(index, this::getAction);
+	}
+
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * Getter. Builds a heap map of |S| entries, meant for models small enough to hold one.
+	 *
+	 * @return the V function.
+	 */
+	public Map<State, Double> getValueFunction() {
+		MDPIndex index = this.model.getIndex();
+		Map<State, Double> ret = new HashMap<>();
+		for (int s = 0; s < this.model.getNumStates(); s++) {
+			ret.put(index.getState(s), this.getValue(s));
+		}
+		return ret;
+	}
+
+	/**
+	 * Getter. Builds a heap map of |S| entries, meant for models small enough to hold one.
+	 *
+	 * @return the greedy policy.
+	 */
+	public Map<State, Action> getPolicy() {
+		MDPIndex index = this.model.getIndex();
+		Map<State, Action> ret = new HashMap<>();
+		for (int s = 0; s < this.model.getNumStates(); s++) {
+			ret.put(index.getState(s), index.getAction(this.getAction(s)));
+		}
+		return ret;
+	}
+
+	public Table<State, Action, Double> getQ() {
+		MDPIndex index = this.model.getIndex();
+		int numActions = this.model.getNumActions();
+		Table<State, Action, Double> ret = HashBasedTable.create();
+		for (int s = 0; s < this.model.getNumStates(); s++) {
+			for (int a = 0; a < numActions; a++) {
+				ret.put(index.getState(s), index.getAction(a), this.getQValue(s, a));
+			}
+		}
+		return ret;
+	}
+
+}
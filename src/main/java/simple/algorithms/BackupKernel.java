@@ -0,0 +1,30 @@
+package simple.algorithms;
+
+/**
+ * Combines the Q-values of one state into the value backed up to its predecessors.
+ * Plugged into ArrayValueIteration to choose the Bellman operator.
+ */
+public interface BackupKernel {
+
+	/**
+	 * Bellman optimality backup: the value of a state is its highest Q-value.
+	 */
+	BackupKernel MAX = (q, offset, numActions) -> {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int a = offset, end = offset + numActions; a < end; a++) {
+			if (q[a] > max) {
+				max = q[a];
+			}
+		}
+		return max;
+	};
+
+	/**
+	 * @param q - Q-values, laid out by s * |A| + a.
+	 * @param offset - position of the first action of the state in q.
+	 * @param numActions
+	 * @return the value of the state.
+	 */
+	double value(double[] q, int offset, int numActions);
+
+}
@@ -0,0 +1,66 @@
+package simple.algorithms;
+
+/**
+ * Boltzmann backup: the value of a state is the average of its Q-values weighted by the
+ * softmax policy exp(beta * Q(s, a)) / sum_a' exp(beta * Q(s, a')). Weights are computed
+ * relative to the highest Q-value, so large beta * Q cannot overflow, and without allocating.
+ * beta = 0 averages the actions uniformly; beta going to infinity recovers the max backup.
+ */
+public class BoltzmannBackup implements BackupKernel {
+
+	/**
+	 * Inverse temperature.
+	 */
+	private final double beta;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param beta
+	 */
+	public BoltzmannBackup(double beta) {
+		this.beta = beta;
+	}
+
+	@Override
+	public double value(double[] q, int offset, int numActions) {
+		double max = BackupKernel.MAX.value(q, offset, numActions);
+		double norm = 0.0;
+		double sum = 0.0;
+		for (int a = offset, end = offset + numActions; a < end; a++) {
+			double w = Math.exp(this.beta * (q[a] - max));
+			norm += w;
+			sum += w * (q[a] - max);
+		}
+		// The weight of the max action is 1, so norm >= 1.
+		return max + sum / norm;
+	}
+
+	/**
+	 * Writes the softmax policy of one state into out.
+	 *
+	 * @param q - Q-values, laid out by s * |A| + a.
+	 * @param offset - position of the first action of the state in q.
+	 * @param numActions
+	 * @param beta - inverse temperature.
+	 * @param out - receives the probability of each action, starting at outOffset.
+	 * @param outOffset
+	 */
+	public static void softmax(double[] q, int offset, int numActions, double beta, double[] out, int outOffset) {
+		double max = BackupKernel.MAX.value(q, offset, numActions);
+		double norm = 0.0;
+		for (int a = 0; a < numActions; a++) {
+			double w = Math.exp(beta * (q[offset + a] - max));
+			out[outOffset + a] = w;
+			norm += w;
+		}
+		for (int a = 0; a < numActions; a++) {
+			out[outOffset + a] /= norm;
+		}
+	}
+
+	public double getBeta() {
+		return this.beta;
+	}
+
+}
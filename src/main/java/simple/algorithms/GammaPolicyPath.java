@@ -0,0 +1,268 @@
+package simple.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import simple.MDP.Action;
+import simple.MDP.IndexedMDP;
+import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
+import simple.MDP.State;
+
+/**
+ * Computes, for an simple.MDP, the piecewise-constant map from gamma in [0, gammaMax] to an
+ * optimal policy, so that the optimal policy at any number of gammas can be looked up afterwards.
+ *
+ * The path is followed by policy-iteration homotopy: starting from the optimal policy at gamma = 0,
+ * the current policy is checked for optimality at increasing gammas (one exact policy evaluation per
+ * check). When it stops being optimal the breakpoint is located by bisection, and policy iteration
+ * seeded with the current policy gives the policy of the next interval. A policy that stops and then
+ * becomes optimal again within one scan step is not detected; a finer step trades time for safety.
+ * The gammas passed to run(Collection) are always checked, so the policies looked up at them are optimal.
+ */
+public class GammaPolicyPath {
+
+	/**
+	 * The model being solved.
+	 */
+	private final IndexedMDP model;
+
+	/**
+	 * Largest gamma of the path.
+	 */
+	private final double gammaMax;
+
+	/**
+	 * Distance between consecutive optimality checks.
+	 */
+	private double step = 0.05;
+
+	/**
+	 * Width below which breakpoints are no longer bisected.
+	 */
+	private double resolution = 1e-6;
+
+	/**
+	 * First gamma of each interval, increasing. The first one is 0.
+	 */
+	private final List<Double> breakpoints;
+
+	/**
+	 * Action id of each state for each interval.
+	 */
+	private final List<int[]> policies;
+
+	/**
+	 * Number of policy evaluations performed by run().
+	 */
+	private int evaluations;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mdp
+	 * @param gammaMax - largest gamma of interest, below 1.
+	 */
+	public GammaPolicyPath(MDP mdp, double gammaMax) {
+		this(mdp.compile(), gammaMax);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model
+	 * @param gammaMax - largest gamma of interest, below 1.
+	 */
+	public GammaPolicyPath(IndexedMDP model, double gammaMax) {
+		if (gammaMax < 0.0 || gammaMax >= 1.0) {
+			throw new IllegalArgumentException("gammaMax must be in [0, 1), got " + gammaMax);
+		}
+		this.model = model;
+		this.gammaMax = gammaMax;
+		this.breakpoints = new ArrayList<>();
+		this.policies = new ArrayList<>();
+	}
+
+	/**
+	 * Follows the optimal policy from gamma = 0 to gammaMax.
+	 */
+	public void run() {
+		this.run(Collections.emptyList());
+	}
+
+	/**
+	 * Follows the optimal policy from gamma = 0 to gammaMax, checking it at every multiple of the
+	 * step and at every given gamma.
+	 *
+	 * @param checks - gammas at which the policy will be looked up; those above gammaMax are ignored.
+	 */
+	public void run(Collection<Double> checks) {
+		this.breakpoints.clear();
+		this.policies.clear();
+		this.evaluations = 0;
+		TreeSet<Double> mandatory = new TreeSet<>(checks);
+		mandatory.add(this.gammaMax);
+		int[] policy = this.solve(0.0, null);
+		this.breakpoints.add(0.0);
+		this.policies.add(policy);
+		double gamma = 0.0;
+		while (gamma < this.gammaMax) {
+			// Multiples of the step are computed, not accumulated, so they do not drift.
+			double next = (Math.floor(gamma / this.step) + 1) * this.step;
+			if (next <= gamma) {
+				next += this.step;
+			}
+			Double check = mandatory.higher(gamma);
+			if (check != null && check < next) {
+				next = check;
+			}
+			if (this.isOptimal(policy, next)) {
+				gamma = next;
+				continue;
+			}
+			// policy is optimal at lo and not at hi.
+			double lo = gamma;
+			double hi = next;
+			while (hi - lo > this.resolution) {
+				double mid = 0.5 * (lo + hi);
+				if (this.isOptimal(policy, mid)) {
+					lo = mid;
+				} else {
+					hi = mid;
+				}
+			}
+			int[] nextPolicy = this.solve(hi, policy);
+			if (!Arrays.equals(nextPolicy, policy)) {
+				this.breakpoints.add(hi);
+				this.policies.add(nextPolicy);
+				policy = nextPolicy;
+			}
+			gamma = hi;
+		}
+	}
+
+	/**
+	 * @param gamma
+	 * @return the action id of each state in a policy optimal at gamma, checked if gamma was passed to
+	 * run(Collection) or is a multiple of the step.
+	 */
+	public int[] getPolicyIndices(double gamma) {
+		if (this.policies.isEmpty()) {
+			throw new IllegalStateException("The path has not been computed, call run() first");
+		}
+		int i = this.breakpoints.size() - 1;
+		while (i > 0 && this.breakpoints.get(i) > gamma) {
+			i--;
+		}
+		return this.policies.get(i);
+	}
+
+	/**
+	 * @param gamma
+	 * @return a policy optimal at gamma.
+	 */
+	public Map<State, Action> getPolicy(double gamma) {
+		int[] policy = this.getPolicyIndices(gamma);
+		MDPIndex index = this.model.getIndex();
+		Map<State, Action> ret = new HashMap<>();
+		for (int s = 0; s < policy.length; s++) {
+			ret.put(index.getState(s), index.getAction(policy[s]));
+		}
+		return ret;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the gamma at which each interval of the path starts.
+	 */
+	public List<Double> getBreakpoints() {
+		return this.breakpoints;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of distinct optimal policies along the path.
+	 */
+	public int getNumPolicies() {
+		return this.policies.size();
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of policy evaluations used to compute the path.
+	 */
+	public int getEvaluations() {
+		return this.evaluations;
+	}
+
+	public void setStep(double step) {
+		this.step = step;
+	}
+
+	public void setResolution(double resolution) {
+		this.resolution = resolution;
+	}
+
+	/**
+	 * @param policy
+	 * @param gamma
+	 * @return whether no action improves on the policy's value at gamma by more than rounding error.
+	 */
+	private boolean isOptimal(int[] policy, double gamma) {
+		double[] V = this.evaluate(policy, gamma);
+		int numActions = this.model.getNumActions();
+		for (int s = 0; s < policy.length; s++) {
+			double current = this.model.backup(s, policy[s], gamma, V);
+			double slack = 1e-10 * Math.max(1.0, Math.abs(current));
+			for (int a = 0; a < numActions; a++) {
+				if (a != policy[s] && this.model.backup(s, a, gamma, V) > current + slack) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param policy
+	 * @param gamma
+	 * @return the exact value of the policy at gamma.
+	 */
+	private double[] evaluate(int[] policy, double gamma) {
+		this.evaluations++;
+		PolicyLinearSystem system = new PolicyLinearSystem(this.model, gamma,
+				PolicyLinearSystem.epsilonGreedyWeights(policy, this.model.getNumActions(), 0.0));
+		if (this.model.getNumStates() <= 2000) {
+			return system.solveDense();
+		}
+		double[] V = new double[policy.length];
+		system.solveIterative(V, 1e-12, 10000);
+		return V;
+	}
+
+	/**
+	 * @param gamma
+	 * @param seed - policy to start from, or null.
+	 * @return an optimal policy at gamma, found by policy iteration.
+	 */
+	private int[] solve(double gamma, int[] seed) {
+		PolicyIteration pi = new PolicyIteration(this.model, gamma);
+		if (seed != null) {
+			System.arraycopy(seed, 0, pi.getPolicyIndices(), 0, seed.length);
+			pi.setValues(this.evaluate(seed, gamma));
+		}
+		pi.run();
+		this.evaluations += pi.getIterations();
+		return pi.getPolicyIndices().clone();
+	}
+
+}
@@ -0,0 +1,218 @@
+package simple.algorithms;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import simple.MDP.MDP;
+
+/**
+ * Solves one simple.MDP for an ordered list of gammas with ValueIteration, warm-starting each solve
+ * from the previous one. Gammas should be given in increasing order: the solution at 0.9 is a good
+ * starting point for 0.99, and high gammas dominate the cost.
+ *
+ * By default the seed is the exact value, at the new gamma, of the previous optimal policy: optimal
+ * policies change rarely between nearby gammas, so this is usually within tolerance of the answer.
+ * Seeding with the previous value function instead helps far less, since the scale of V grows
+ * like 1 / (1 - gamma). The policy evaluations are not sweeps, so their number and the wall time
+ * of every phase are reported next to the sweep counts.
+ */
+public class GammaSweep {
+
+	/**
+	 * The MDP being solved.
+	 */
+	private final MDP mdp;
+
+	/**
+	 * Gammas, in solve order.
+	 */
+	private final List<Double> gammas;
+
+	/**
+	 * Solved ValueIteration of each gamma, with its policy computed.
+	 */
+	private final Map<Double, ValueIteration> solutions;
+
+	/**
+	 * Sweeps used by each warm-started solve.
+	 */
+	private final Map<Double, Integer> iterations;
+
+	/**
+	 * Sweeps a cold solve from V = 0 takes for each gamma, when measured.
+	 */
+	private final Map<Double, Integer> coldIterations;
+
+	/**
+	 * Number of exact policy evaluations used to seed the solves.
+	 */
+	private int seedEvaluations;
+
+	/**
+	 * Wall time, in nanoseconds, of seeding the warm-started solves.
+	 */
+	private long seedNanos;
+
+	/**
+	 * Wall time, in nanoseconds, of the sweeps of the warm-started solves.
+	 */
+	private long solveNanos;
+
+	/**
+	 * Wall time, in nanoseconds, of the cold solves, when measured.
+	 */
+	private long coldNanos;
+
+	/**
+	 * Whether run() also solves every gamma from scratch to report the iterations saved.
+	 */
+	private boolean measureSavings = false;
+
+	/**
+	 * Whether solves are seeded with the value of the previous policy rather than the previous value function.
+	 */
+	private boolean seedFromPolicy = true;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mdp
+	 * @param gammas - in the order they are solved, normally increasing.
+	 */
+	public GammaSweep(MDP mdp, List<Double> gammas) {
+		this.mdp = mdp;
+		this.gammas = new ArrayList<>(gammas);
+		this.solutions = new LinkedHashMap<>();
+		this.iterations = new LinkedHashMap<>();
+		this.coldIterations = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Solves every gamma in order.
+	 */
+	public void run() {
+		this.seedEvaluations = 0;
+		this.seedNanos = 0;
+		this.solveNanos = 0;
+		this.coldNanos = 0;
+		ValueIteration previous = null;
+		for (Double gamma : this.gammas) {
+			long start = System.nanoTime();
+			ValueIteration vi = new ValueIteration(this.mdp, gamma);
+			if (previous != null && this.seedFromPolicy) {
+				vi.setInitialPolicy(previous.getPolicy());
+				this.seedEvaluations++;
+			} else if (previous != null) {
+				vi.setInitialValues(previous.getValueFunction());
+			}
+			long seeded = System.nanoTime();
+			vi.run();
+			vi.computePolicy();
+			this.seedNanos += seeded - start;
+			this.solveNanos += System.nanoTime() - seeded;
+			this.solutions.put(gamma, vi);
+			this.iterations.put(gamma, vi.getIterations());
+			if (this.measureSavings) {
+				start = System.nanoTime();
+				ValueIteration cold = new ValueIteration(this.mdp, gamma);
+				cold.run();
+				cold.computePolicy();
+				this.coldNanos += System.nanoTime() - start;
+				this.coldIterations.put(gamma, cold.getIterations());
+			}
+			previous = vi;
+		}
+	}
+
+	/**
+	 * @param gamma
+	 * @return the solved ValueIteration for gamma, with its policy computed.
+	 */
+	public ValueIteration getSolution(double gamma) {
+		return this.solutions.get(gamma);
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of sweeps of each warm-started solve.
+	 */
+	public Map<Double, Integer> getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the total number of sweeps of the warm-started solves.
+	 */
+	public int getTotalIterations() {
+		return this.iterations.values().stream().mapToInt(i -> i).sum();
+	}
+
+	/**
+	 * Getter. Only available after a run with measureSavings set.
+	 *
+	 * @return the number of sweeps the warm starts saved over solving every gamma from V = 0. The exact
+	 * policy evaluations of the seeds are not sweeps and are not counted, see getTimeSaved().
+	 */
+	public int getIterationsSaved() {
+		this.checkMeasured();
+		return this.coldIterations.values().stream().mapToInt(i -> i).sum() - this.getTotalIterations();
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of exact policy evaluations used to seed the solves.
+	 */
+	public int getSeedEvaluations() {
+		return this.seedEvaluations;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the wall time, in nanoseconds, spent seeding the warm-started solves.
+	 */
+	public long getSeedNanos() {
+		return this.seedNanos;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the wall time, in nanoseconds, of the warm-started solves, seeding included.
+	 */
+	public long getTotalNanos() {
+		return this.seedNanos + this.solveNanos;
+	}
+
+	/**
+	 * Getter. Only available after a run with measureSavings set.
+	 *
+	 * @return the wall time, in nanoseconds, the warm starts saved over solving every gamma from V = 0,
+	 * seeding included; negative if they cost more than they saved.
+	 */
+	public long getTimeSaved() {
+		this.checkMeasured();
+		return this.coldNanos - this.getTotalNanos();
+	}
+
+	private void checkMeasured() {
+		if (this.coldIterations.size() != this.iterations.size()) {
+			throw new IllegalStateException("Savings were not measured, call setMeasureSavings(true) before run()");
+		}
+	}
+
+	public void setMeasureSavings(boolean measureSavings) {
+		this.measureSavings = measureSavings;
+	}
+
+	public void setSeedFromPolicy(boolean seedFromPolicy) {
+		this.seedFromPolicy = seedFromPolicy;
+	}
+
+}
@@ -0,0 +1,80 @@
+package simple.algorithms;
+
+import simple.MDP.IndexedMDP;
+import simple.MDP.MDP;
+
+/**
+ * This class implements Modified Policy Iteration in an simple.MDP and a Gamma: each policy
+ * is only partially evaluated, with a fixed number of sweeps, before being improved.
+ * The run stops once the Bellman optimality residual max_s |max_a Q(s, a) - V(s)| is within tolerance.
+ */
+public class ModifiedPolicyIteration extends PolicyIteration {
+
+	/**
+	 * Number of evaluation sweeps per improvement step.
+	 */
+	private int evaluationSweeps = 5;
+
+	/**
+	 * Total number of evaluation sweeps performed by the last call to run().
+	 */
+	private int sweeps;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mdp
+	 * @param gamma
+	 */
+	public ModifiedPolicyIteration(MDP mdp, double gamma) {
+		super(mdp, gamma);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model
+	 * @param gamma
+	 */
+	public ModifiedPolicyIteration(IndexedMDP model, double gamma) {
+		super(model, gamma);
+	}
+
+	/**
+	 * Implements MPI in this simple.MDP, starting from the policy greedy with respect to V.
+	 */
+	@Override
+	public void run() {
+		int i = 0;
+		this.sweeps = 0;
+		this.improve();
+		while (i < this.maxIter && this.residual > this.tolerance) {
+			this.evaluate();
+			this.improve();
+			i++;
+		}
+		this.iterations = i;
+	}
+
+	/**
+	 * Runs evaluationSweeps Gauss-Seidel sweeps of the current policy's Bellman equation.
+	 */
+	@Override
+	protected void evaluate() {
+		this.sweeps += this.system().sweep(this.V, 0.0, this.evaluationSweeps);
+	}
+
+	public void setEvaluationSweeps(int evaluationSweeps) {
+		this.evaluationSweeps = evaluationSweeps;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the total number of evaluation sweeps of the last run.
+	 */
+	public int getSweeps() {
+		return this.sweeps;
+	}
+
+}
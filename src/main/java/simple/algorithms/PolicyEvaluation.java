@@ -1,29 +1,48 @@
 package simple.algorithms;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
-import org.apache.commons.math3.distribution.EnumeratedDistribution;
-import org.apache.commons.math3.util.Pair;
 import simple.MDP.Action;
+import simple.MDP.IndexedMDP;
 import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
 import simple.MDP.State;
 import simple.MDP.Trajectory;
 import simple.MDP.exceptions.MDPException;
 import simple.experiment.data.DataGenerator;
 import simple.experiment.model_based.MDPEstimator;
 import simple.sample.RandomMDP;
+import simple.sample.RandomStreams;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.SplittableRandom;
 
 /**
  * Created by dilip on 11/7/16.
  */
 public class PolicyEvaluation {
 
+    /**
+     * How run() computes the value function.
+     */
+    public enum Mode {
+        /**
+         * Repeated sweeps until values change by less than the tolerance. Epsilon-greedy and stochastic
+         * policies are followed by sampling one action per state and sweep.
+         */
+        ITERATIVE,
+        /**
+         * Exact solve of (I - gamma P_pi) V = R_pi by dense LU decomposition. For small and medium MDPs.
+         */
+        DIRECT,
+        /**
+         * Solve of (I - gamma P_pi) V = R_pi by BiCGSTAB, using only sparse matrix-vector products, and
+         * Gauss-Seidel sweeps if it stalls. For large MDPs.
+         */
+        BICGSTAB
+    }
+
     /**
      * The policy to be evaluated
      */
@@ -65,9 +84,14 @@ public class PolicyEvaluation {
     private static int maxIter = 10000;
 
     /**
-     * Random generator
+     * How the value function is computed.
      */
-    private final Random rndg = new Random();
+    private Mode mode = Mode.ITERATIVE;
+
+    /**
+     * Relative residual tolerance of the BiCGSTAB solver.
+     */
+    private static double solverTolerance = 1e-10;
 
     public PolicyEvaluation(MDP mdp, double gamma, Map<State, Action> policy){
         this.mdp = mdp;
@@ -112,48 +136,131 @@ public class PolicyEvaluation {
      * Implements VI in this simple.MDP.
      */
     public void run() {
+        if(this.mode != Mode.ITERATIVE){
+            this.runExact();
+            return;
+        }
+        IndexedMDP model = this.mdp.compile();
+        MDPIndex index = model.getIndex();
+        int numStates = model.getNumStates();
+        int numActions = model.getNumActions();
+        SplittableRandom rnd = RandomStreams.current();
+        double[] v = new double[numStates];
+        for (int s = 0; s < numStates; s++) {
+            v[s] = this.V.get(index.getState(s));
+        }
         int i = 0;
         boolean convergence = false;
         // Convergence criteria are: (1) number of iterations and (2) difference of absolute values.
         while (i < maxIter && !convergence) {
             convergence = true;
             // For each state of the simple.MDP.
-            for (State state : this.mdp.getStates()) {
+            for (int s = 0; s < numStates; s++) {
+                State state = index.getState(s);
                 // Compute the value of the action with the highest expected reward.
-                Action action;
+                int action;
                 if(this.policy != null) {
-                    if (this.rndg.nextDouble() < this.epsilon) {
-                        action = Lists.newArrayList(this.mdp.getActions()).get(this.rndg.nextInt(this.mdp.getActions().size()));
+                    if (rnd.nextDouble() < this.epsilon) {
+                        action = rnd.nextInt(numActions);
                     } else {
-                        action = this.policy.get(state);
+                        action = index.getActionIndex(this.policy.get(state));
                     }
                 }
                 else{
-                    List<Pair<Action, Double>> pmf = this.stochPolicy.get(state).entrySet().stream()
-                            .map(e -> new Pair<>(e.getKey(), e.getValue())).collect(Collectors.toList());
-                    EnumeratedDistribution<Action> actionDistro = new EnumeratedDistribution<>(pmf);
-                    action = actionDistro.sample();
+                    // Inverse CDF over the actions in id order.
+                    Map<Action, Double> pmf = this.stochPolicy.get(state);
+                    double u = rnd.nextDouble();
+                    action = numActions - 1;
+                    for (int a = 0; a < numActions - 1; a++) {
+                        Double p = pmf.get(index.getAction(a));
+                        u -= p == null ? 0.0 : p;
+                        if (u < 0.0) {
+                            action = a;
+                            break;
+                        }
+                    }
                 }
 
-                double sum = 0.0;
-                for(State sprime : this.mdp.getStates()) {
-                    sum += this.mdp.getTransition(state, sprime, action) * (this.mdp.getReward(state, sprime, action) + this.gamma * this.V.get(sprime));
-                }
+                double sum = model.backup(s, action, this.gamma, v);
 
                 // Current Value
-                double currentV = this.V.get(state);
+                double currentV = v[s];
                 // Update the V value.
-                this.V.put(state, sum);
+                v[s] = sum;
                 // If the difference between V values is greater than tolerance, then we have not converged.
-                if(convergence && (Math.abs(currentV - this.V.get(state)) > this.tolerance)){
+                if(convergence && (Math.abs(currentV - sum) > this.tolerance)){
                     convergence = false;
                 }
             }
             i++;
         }
+        for (int s = 0; s < numStates; s++) {
+            this.V.put(index.getState(s), v[s]);
+        }
         //System.out.println("Number of iters = " + i);
     }
 
+    /**
+     * Solves the Bellman equation of the policy as a linear system. Epsilon-greedy and stochastic
+     * policies are evaluated in expectation over their action distribution.
+     */
+    private void runExact() {
+        IndexedMDP model = this.mdp.compile();
+        MDPIndex index = model.getIndex();
+        int numStates = model.getNumStates();
+        int numActions = model.getNumActions();
+        double[] weights;
+        if(this.policy != null){
+            int[] actions = new int[numStates];
+            for (int s = 0; s < numStates; s++) {
+                actions[s] = index.getActionIndex(this.policy.get(index.getState(s)));
+            }
+            weights = PolicyLinearSystem.epsilonGreedyWeights(actions, numActions, this.epsilon);
+        }
+        else{
+            weights = new double[numStates * numActions];
+            for (int s = 0; s < numStates; s++) {
+                for (Map.Entry<Action, Double> e : this.stochPolicy.get(index.getState(s)).entrySet()) {
+                    weights[s * numActions + index.getActionIndex(e.getKey())] = e.getValue();
+                }
+            }
+        }
+        PolicyLinearSystem system = new PolicyLinearSystem(model, this.gamma, weights);
+        double[] v;
+        if(this.mode == Mode.DIRECT){
+            v = system.solveDense();
+        }
+        else{
+            v = new double[numStates];
+            for (int s = 0; s < numStates; s++) {
+                v[s] = this.V.get(index.getState(s));
+            }
+            system.solveIterative(v, solverTolerance, maxIter);
+        }
+        for (int s = 0; s < numStates; s++) {
+            this.V.put(index.getState(s), v[s]);
+        }
+    }
+
+    /**
+     * Seeds the value function, e.g. with the value of a similar policy or of the same policy at a nearby gamma.
+     * Used by the ITERATIVE and BICGSTAB modes. States missing from values keep their current value.
+     *
+     * @param values
+     */
+    public void setInitialValues(Map<State, Double> values){
+        for (State s : this.mdp.getStates()) {
+            Double v = values.get(s);
+            if (v != null) {
+                this.V.put(s, v);
+            }
+        }
+    }
+
+    public void setMode(Mode mode){
+        this.mode = mode;
+    }
+
     public Map<State, Double> getValueFunction(){
         return this.V;
     }
@@ -0,0 +1,249 @@
+package simple.algorithms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import simple.MDP.Action;
+import simple.MDP.IndexedMDP;
+import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
+import simple.MDP.State;
+
+/**
+ * This class implements Policy Iteration in an simple.MDP and a Gamma: the current policy
+ * is evaluated exactly, then improved greedily, until the policy no longer changes.
+ */
+public class PolicyIteration {
+
+	/**
+	 * The model being solved.
+	 */
+	protected final IndexedMDP model;
+
+	/**
+	 * There is a value of gamma.
+	 */
+	protected final double gamma;
+
+	/**
+	 * Value of the current policy, by state id.
+	 */
+	protected final double[] V;
+
+	/**
+	 * Q function of the current policy's value, by s * |A| + a.
+	 */
+	protected final double[] Q;
+
+	/**
+	 * Current action id of each state.
+	 */
+	protected final int[] P;
+
+	/**
+	 * How policies are evaluated.
+	 */
+	protected PolicyEvaluation.Mode evaluationMode;
+
+	/**
+	 * Number of improvement steps performed by the last call to run().
+	 */
+	protected int iterations;
+
+	/**
+	 * Largest |max_a Q(s, a) - V(s)| seen by the last improvement step.
+	 */
+	protected double residual;
+
+	/**
+	 * Tolerance parameter.
+	 */
+	protected double tolerance = 0.0001;
+
+	/**
+	 * Max iteration parameter.
+	 */
+	protected int maxIter = 10000;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param mdp
+	 * @param gamma
+	 */
+	public PolicyIteration(MDP mdp, double gamma) {
+		this(mdp.compile(), gamma);
+	}
+
+	/**
+	 * Constructor. Policies are evaluated by LU decomposition for up to 2000 states, by BiCGSTAB above.
+	 *
+	 * @param model
+	 * @param gamma
+	 */
+	public PolicyIteration(IndexedMDP model, double gamma) {
+		this.model = model;
+		this.gamma = gamma;
+		this.V = new double[model.getNumStates()];
+		this.Q = new double[model.getNumStates() * model.getNumActions()];
+		this.P = new int[model.getNumStates()];
+		this.evaluationMode = model.getNumStates() <= 2000 ? PolicyEvaluation.Mode.DIRECT : PolicyEvaluation.Mode.BICGSTAB;
+	}
+
+	/**
+	 * Implements PI in this simple.MDP, starting from the policy greedy with respect to V.
+	 */
+	public void run() {
+		int i = 0;
+		boolean stable = false;
+		this.improve();
+		while (i < this.maxIter && !stable) {
+			this.evaluate();
+			stable = !this.improve();
+			i++;
+		}
+		this.iterations = i;
+	}
+
+	/**
+	 * Computes V for the current policy.
+	 */
+	protected void evaluate() {
+		PolicyLinearSystem system = this.system();
+		switch (this.evaluationMode) {
+			case DIRECT:
+				System.arraycopy(system.solveDense(), 0, this.V, 0, this.V.length);
+				break;
+			case BICGSTAB:
+				system.solveIterative(this.V, 1e-10, this.maxIter);
+				break;
+			default:
+				system.sweep(this.V, this.tolerance, this.maxIter);
+		}
+	}
+
+	/**
+	 * @return the linear system whose solution is the value of the current policy.
+	 */
+	protected PolicyLinearSystem system() {
+		return new PolicyLinearSystem(this.model, this.gamma,
+				PolicyLinearSystem.epsilonGreedyWeights(this.P, this.model.getNumActions(), 0.0));
+	}
+
+	/**
+	 * Makes the policy greedy with respect to V. A state keeps its action unless another one is
+	 * better by more than rounding error, so that the loop cannot cycle between equally good policies.
+	 *
+	 * @return whether any action changed.
+	 */
+	protected boolean improve() {
+		int numStates = this.model.getNumStates();
+		int numActions = this.model.getNumActions();
+		boolean changed = false;
+		this.residual = 0.0;
+		for (int s = 0; s < numStates; s++) {
+			int offset = s * numActions;
+			int best = this.P[s];
+			for (int a = 0; a < numActions; a++) {
+				this.Q[offset + a] = this.model.backup(s, a, this.gamma, this.V);
+			}
+			double bestQ = this.Q[offset + best];
+			double slack = 1e-12 * Math.max(1.0, Math.abs(bestQ));
+			for (int a = 0; a < numActions; a++) {
+				if (this.Q[offset + a] > bestQ + slack) {
+					best = a;
+					bestQ = this.Q[offset + a];
+				}
+			}
+			this.residual = Math.max(this.residual, Math.abs(bestQ - this.V[s]));
+			if (best != this.P[s]) {
+				this.P[s] = best;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Seeds the policy, e.g. with the solution of a related problem.
+	 *
+	 * @param policy
+	 */
+	public void setPolicy(Map<State, Action> policy) {
+		MDPIndex index = this.model.getIndex();
+		for (int s = 0; s < this.P.length; s++) {
+			this.P[s] = index.getActionIndex(policy.get(index.getState(s)));
+		}
+	}
+
+	/**
+	 * Seeds the value function the first improvement step is greedy with respect to.
+	 *
+	 * @param values - value of each state, by id.
+	 */
+	public void setValues(double[] values) {
+		System.arraycopy(values, 0, this.V, 0, this.V.length);
+	}
+
+	public void setEvaluationMode(PolicyEvaluation.Mode evaluationMode) {
+		this.evaluationMode = evaluationMode;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setMaxIterations(int maxIter) {
+		this.maxIter = maxIter;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of policy improvement steps of the last run.
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	public double[] getValues() {
+		return this.V;
+	}
+
+	public int[] getPolicyIndices() {
+		return this.P;
+	}
+
+	public Map<State, Action> getPolicy() {
+		MDPIndex index = this.model.getIndex();
+		Map<State, Action> ret = new HashMap<>();
+		for (int s = 0; s < this.P.length; s++) {
+			ret.put(index.getState(s), index.getAction(this.P[s]));
+		}
+		return ret;
+	}
+
+	public Map<State, Double> getValueFunction() {
+		MDPIndex index = this.model.getIndex();
+		Map<State, Double> ret = new HashMap<>();
+		for (int s = 0; s < this.V.length; s++) {
+			ret.put(index.getState(s), this.V[s]);
+		}
+		return ret;
+	}
+
+	public Table<State, Action, Double> getQ() {
+		MDPIndex index = this.model.getIndex();
+		int numActions = this.model.getNumActions();
+		Table<State, Action, Double> ret = HashBasedTable.create();
+		for (int s = 0; s < this.P.length; s++) {
+			for (int a = 0; a < numActions; a++) {
+				ret.put(index.getState(s), index.getAction(a), this.Q[s * numActions + a]);
+			}
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,291 @@
+package simple.algorithms;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import simple.MDP.IndexedMDP;
+
+/**
+ * The linear system (I - gamma * P_pi) V = R_pi whose solution is the value function
+ * of a policy pi. The policy is given as a weight per (state, action), laid out by
+ * s * |A| + a, so deterministic, epsilon-greedy and stochastic policies are all handled.
+ */
+class PolicyLinearSystem {
+
+	/**
+	 * The model the policy is evaluated on.
+	 */
+	private final IndexedMDP model;
+
+	/**
+	 * Discount factor.
+	 */
+	private final double gamma;
+
+	/**
+	 * Probability of each action in each state, by s * |A| + a.
+	 */
+	private final double[] weights;
+
+	/**
+	 * Expected one-step reward of following the policy from each state.
+	 */
+	private final double[] rewards;
+
+	PolicyLinearSystem(IndexedMDP model, double gamma, double[] weights) {
+		this.model = model;
+		this.gamma = gamma;
+		this.weights = weights;
+		int numStates = model.getNumStates();
+		int numActions = model.getNumActions();
+		this.rewards = new double[numStates];
+		for (int s = 0; s < numStates; s++) {
+			double r = 0.0;
+			for (int a = 0; a < numActions; a++) {
+				double w = weights[s * numActions + a];
+				if (w != 0.0) {
+					for (long k = model.rowStart(s, a), end = model.rowEnd(s, a); k < end; k++) {
+						r += w * model.probability(k) * model.reward(k);
+					}
+				}
+			}
+			this.rewards[s] = r;
+		}
+	}
+
+	/**
+	 * Weights of a deterministic policy that takes a uniformly random action with probability epsilon.
+	 *
+	 * @param policy - action id of each state.
+	 * @param numActions
+	 * @param epsilon
+	 * @return the weight of each (state, action), by s * |A| + a.
+	 */
+	static double[] epsilonGreedyWeights(int[] policy, int numActions, double epsilon) {
+		double[] ret = new double[policy.length * numActions];
+		double explore = epsilon / numActions;
+		for (int s = 0; s < policy.length; s++) {
+			for (int a = 0; a < numActions; a++) {
+				ret[s * numActions + a] = explore;
+			}
+			ret[s * numActions + policy[s]] += 1.0 - epsilon;
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes y = (I - gamma * P_pi) x.
+	 *
+	 * @param x
+	 * @param y
+	 */
+	void multiply(double[] x, double[] y) {
+		int numStates = this.model.getNumStates();
+		int numActions = this.model.getNumActions();
+		for (int s = 0; s < numStates; s++) {
+			double px = 0.0;
+			for (int a = 0; a < numActions; a++) {
+				double w = this.weights[s * numActions + a];
+				if (w != 0.0) {
+					double sum = 0.0;
+					for (long k = this.model.rowStart(s, a), end = this.model.rowEnd(s, a); k < end; k++) {
+						sum += this.model.probability(k) * x[this.model.successor(k)];
+					}
+					px += w * sum;
+				}
+			}
+			y[s] = x[s] - this.gamma * px;
+		}
+	}
+
+	/**
+	 * Solves the system by LU decomposition of the dense matrix. Cubic in the number of states.
+	 *
+	 * @return the value of each state, by id.
+	 */
+	double[] solveDense() {
+		int numStates = this.model.getNumStates();
+		int numActions = this.model.getNumActions();
+		double[][] matrix = new double[numStates][numStates];
+		for (int s = 0; s < numStates; s++) {
+			matrix[s][s] = 1.0;
+			for (int a = 0; a < numActions; a++) {
+				double w = this.weights[s * numActions + a];
+				if (w != 0.0) {
+					for (long k = this.model.rowStart(s, a), end = this.model.rowEnd(s, a); k < end; k++) {
+						matrix[s][this.model.successor(k)] -= this.gamma * w * this.model.probability(k);
+					}
+				}
+			}
+		}
+		return new LUDecomposition(new Array2DRowRealMatrix(matrix, false)).getSolver()
+				.solve(new ArrayRealVector(this.rewards, false)).toArray();
+	}
+
+	/**
+	 * Solves the system with BiCGSTAB, which only needs products with the sparse matrix.
+	 *
+	 * @param x - initial guess, overwritten with the solution.
+	 * @param tolerance - stop once the residual norm is below tolerance times the norm of R_pi.
+	 * @param maxIter
+	 * @return the number of iterations performed.
+	 */
+	int solveBiCGSTAB(double[] x, double tolerance, int maxIter) {
+		int n = x.length;
+		double[] r = new double[n];
+		double[] rHat = new double[n];
+		double[] p = new double[n];
+		double[] v = new double[n];
+		double[] t = new double[n];
+		this.multiply(x, r);
+		for (int i = 0; i < n; i++) {
+			r[i] = this.rewards[i] - r[i];
+			rHat[i] = r[i];
+		}
+		double threshold = tolerance * Math.max(norm(this.rewards), Double.MIN_NORMAL);
+		double rho = 1.0;
+		double alpha = 1.0;
+		double omega = 1.0;
+		int iter = 0;
+		while (iter < maxIter && norm(r) > threshold) {
+			iter++;
+			double rhoNext = dot(rHat, r);
+			if (rhoNext == 0.0) {
+				// Breakdown: restart from the current iterate.
+				this.multiply(x, r);
+				for (int i = 0; i < n; i++) {
+					r[i] = this.rewards[i] - r[i];
+					rHat[i] = r[i];
+					p[i] = 0.0;
+					v[i] = 0.0;
+				}
+				rho = alpha = omega = 1.0;
+				continue;
+			}
+			double beta = (rhoNext / rho) * (alpha / omega);
+			for (int i = 0; i < n; i++) {
+				p[i] = r[i] + beta * (p[i] - omega * v[i]);
+			}
+			this.multiply(p, v);
+			alpha = rhoNext / dot(rHat, v);
+			// r now holds s = r - alpha * v.
+			for (int i = 0; i < n; i++) {
+				r[i] -= alpha * v[i];
+			}
+			if (norm(r) <= threshold) {
+				for (int i = 0; i < n; i++) {
+					x[i] += alpha * p[i];
+				}
+				break;
+			}
+			this.multiply(r, t);
+			double tt = dot(t, t);
+			omega = tt == 0.0 ? 0.0 : dot(t, r) / tt;
+			for (int i = 0; i < n; i++) {
+				x[i] += alpha * p[i] + omega * r[i];
+				r[i] -= omega * t[i];
+			}
+			rho = rhoNext;
+			if (omega == 0.0) {
+				rho = alpha = omega = 1.0;
+				for (int i = 0; i < n; i++) {
+					rHat[i] = r[i];
+					p[i] = 0.0;
+					v[i] = 0.0;
+				}
+			}
+		}
+		return iter;
+	}
+
+	/**
+	 * Solves the system with BiCGSTAB. If it stops above the tolerance, e.g. after maxIter iterations,
+	 * Gauss-Seidel sweeps continue from its iterate, since they converge for any gamma below 1.
+	 *
+	 * @param x - initial guess, overwritten with the solution.
+	 * @param tolerance - residual norm to reach, relative to the norm of R_pi.
+	 * @param maxIter - of BiCGSTAB, and of the sweeps.
+	 * @throws IllegalStateException if the sweeps do not reach the tolerance either.
+	 */
+	void solveIterative(double[] x, double tolerance, int maxIter) {
+		this.solveBiCGSTAB(x, tolerance, maxIter);
+		if (this.residual(x) <= tolerance) {
+			return;
+		}
+		// After a sweep changing no value by more than d, every residual is at most gamma * d.
+		double scale = Math.max(norm(this.rewards), Double.MIN_NORMAL);
+		this.sweep(x, tolerance * scale / Math.sqrt(x.length), maxIter);
+		double residual = this.residual(x);
+		if (residual > tolerance) {
+			throw new IllegalStateException("Policy evaluation did not converge: relative residual " + residual
+					+ " above " + tolerance + " after " + maxIter + " iterations");
+		}
+	}
+
+	/**
+	 * @param x
+	 * @return the norm of R_pi - (I - gamma * P_pi) x, relative to the norm of R_pi.
+	 */
+	double residual(double[] x) {
+		double[] r = new double[x.length];
+		this.multiply(x, r);
+		for (int i = 0; i < r.length; i++) {
+			r[i] = this.rewards[i] - r[i];
+		}
+		return norm(r) / Math.max(norm(this.rewards), Double.MIN_NORMAL);
+	}
+
+	/**
+	 * Gauss-Seidel sweeps of V = R_pi + gamma * P_pi V, i.e. iterative policy evaluation.
+	 *
+	 * @param x - initial guess, overwritten with the result.
+	 * @param tolerance - stop once no value changes by more than tolerance in a sweep.
+	 * @param maxSweeps
+	 * @return the number of sweeps performed.
+	 */
+	int sweep(double[] x, double tolerance, int maxSweeps) {
+		int numStates = this.model.getNumStates();
+		int numActions = this.model.getNumActions();
+		int i = 0;
+		boolean convergence = false;
+		while (i < maxSweeps && !convergence) {
+			double maxDiff = 0.0;
+			for (int s = 0; s < numStates; s++) {
+				double px = 0.0;
+				for (int a = 0; a < numActions; a++) {
+					double w = this.weights[s * numActions + a];
+					if (w != 0.0) {
+						double sum = 0.0;
+						for (long k = this.model.rowStart(s, a), end = this.model.rowEnd(s, a); k < end; k++) {
+							sum += this.model.probability(k) * x[this.model.successor(k)];
+						}
+						px += w * sum;
+					}
+				}
+				double v = this.rewards[s] + this.gamma * px;
+				maxDiff = Math.max(maxDiff, Math.abs(v - x[s]));
+				x[s] = v;
+			}
+			convergence = maxDiff <= tolerance;
+			i++;
+		}
+		return i;
+	}
+
+	double[] getRewards() {
+		return this.rewards;
+	}
+
+	private static double dot(double[] x, double[] y) {
+		double ret = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			ret += x[i] * y[i];
+		}
+		return ret;
+	}
+
+	private static double norm(double[] x) {
+		return Math.sqrt(dot(x, x));
+	}
+
+}
@@ -0,0 +1,152 @@
+package simple.algorithms;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import simple.MDP.Action;
+import simple.MDP.MDP;
+import simple.MDP.State;
+
+/**
+ * Memoizes optimal solutions of MDPs so that repeated solves of the same model and gamma,
+ * e.g. the reference solution of the true MDP in every experiment cell, are computed once.
+ * Entries are keyed by MDP identity, MDP version, gamma and solver; a model whose dynamics
+ * change gets a new version and is solved again. Safe to share between threads; concurrent
+ * requests for the same key wait for a single solve.
+ */
+public class SolutionCache {
+
+	/**
+	 * Algorithm used to compute a cached solution.
+	 */
+	public enum Solver {
+		/**
+		 * PolicyIteration with exact evaluation.
+		 */
+		POLICY_ITERATION,
+		/**
+		 * ValueIteration followed by an exact evaluation of its greedy policy.
+		 */
+		VALUE_ITERATION
+	}
+
+	/**
+	 * An optimal policy with its value and Q function. All views are read-only.
+	 */
+	public static class Solution {
+
+		private final Map<State, Action> policy;
+
+		private final Map<State, Double> values;
+
+		private final Table<State, Action, Double> Q;
+
+		Solution(Map<State, Action> policy, Map<State, Double> values, Table<State, Action, Double> Q) {
+			this.policy = Collections.unmodifiableMap(policy);
+			this.values = Collections.unmodifiableMap(values);
+			this.Q = ImmutableTable.copyOf(Q);
+		}
+
+		public Map<State, Action> getPolicy() {
+			return this.policy;
+		}
+
+		public Map<State, Double> getValueFunction() {
+			return this.values;
+		}
+
+		public Table<State, Action, Double> getQ() {
+			return this.Q;
+		}
+	}
+
+	/**
+	 * Cache key. MDPs are compared by identity.
+	 */
+	private static final class Key {
+
+		private final MDP mdp;
+
+		private final long version;
+
+		private final double gamma;
+
+		private final Solver solver;
+
+		Key(MDP mdp, double gamma, Solver solver) {
+			this.mdp = mdp;
+			this.version = mdp.getVersion();
+			this.gamma = gamma;
+			this.solver = solver;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return this.mdp == other.mdp && this.version == other.version
+					&& Double.compare(this.gamma, other.gamma) == 0 && this.solver == other.solver;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = System.identityHashCode(this.mdp);
+			h = 31 * h + Long.hashCode(this.version);
+			h = 31 * h + Double.hashCode(this.gamma);
+			return 31 * h + this.solver.hashCode();
+		}
+	}
+
+	private final ConcurrentHashMap<Key, Solution> solutions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mdp
+	 * @param gamma
+	 * @return the optimal solution of mdp at gamma, computed by policy iteration.
+	 */
+	public Solution getOptimal(MDP mdp, double gamma) {
+		return this.getOptimal(mdp, gamma, Solver.POLICY_ITERATION);
+	}
+
+	/**
+	 * @param mdp
+	 * @param gamma
+	 * @param solver
+	 * @return the optimal solution of mdp at gamma, computed by the given solver.
+	 */
+	public Solution getOptimal(MDP mdp, double gamma, Solver solver) {
+		return this.solutions.computeIfAbsent(new Key(mdp, gamma, solver), SolutionCache::solve);
+	}
+
+	/**
+	 * Drops every cached solution.
+	 */
+	public void clear() {
+		this.solutions.clear();
+	}
+
+	public int size() {
+		return this.solutions.size();
+	}
+
+	private static Solution solve(Key key) {
+		if (key.solver == Solver.POLICY_ITERATION) {
+			PolicyIteration pi = new PolicyIteration(key.mdp, key.gamma);
+			pi.run();
+			return new Solution(pi.getPolicy(), pi.getValueFunction(), pi.getQ());
+		}
+		ValueIteration vi = new ValueIteration(key.mdp, key.gamma);
+		vi.run();
+		vi.computePolicy();
+		PolicyEvaluation pe = new PolicyEvaluation(key.mdp, key.gamma, vi.getPolicy());
+		pe.setMode(PolicyEvaluation.Mode.DIRECT);
+		pe.run();
+		return new Solution(vi.getPolicy(), pe.getValueFunction(), vi.getQ());
+	}
+
+}
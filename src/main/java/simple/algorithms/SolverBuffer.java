@@ -0,0 +1,180 @@
+package simple.algorithms;
+
+import simple.MDP.ChunkedBuffer;
+import simple.MDP.IndexedMDP;
+import simple.algorithms.ArrayValueIteration.Storage;
+
+/**
+ * Long-indexed column of doubles or ints holding the V function, the Q function or the policy of
+ * ArrayValueIteration. Heap columns wrap a primitive array; off-heap columns wrap a ChunkedBuffer,
+ * so they may exceed 2^31 elements and the garbage collector never scans them.
+ */
+public abstract class SolverBuffer {
+
+	/**
+	 * Largest number of elements of a Java array.
+	 */
+	private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Allocates a zeroed column.
+	 *
+	 * @param storage
+	 * @param width - of an element in bytes, 8 for doubles or 4 for ints.
+	 * @param size - number of elements.
+	 * @return the column.
+	 */
+	public static SolverBuffer allocate(Storage storage, int width, long size) {
+		if (storage == Storage.OFF_HEAP) {
+			return new OffHeap(ChunkedBuffer.allocate(width, size));
+		}
+		if (size > MAX_ARRAY) {
+			throw new IllegalArgumentException(size + " elements do not fit in an array, use OFF_HEAP");
+		}
+		return width == 4 ? new HeapInts(new int[(int) size]) : new HeapDoubles(new double[(int) size]);
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of elements.
+	 */
+	public abstract long size();
+
+	public abstract double getDouble(long i);
+
+	public abstract void putDouble(long i, double v);
+
+	public abstract int getInt(long i);
+
+	public abstract void putInt(long i, int v);
+
+	/**
+	 * Backs up (sFrom, a) reading the values of the successors from this column.
+	 *
+	 * @param model
+	 * @param sFrom
+	 * @param a
+	 * @param gamma
+	 * @return the expected one-step return of taking a in sFrom.
+	 */
+	abstract double backup(IndexedMDP model, int sFrom, int a, double gamma);
+
+	private static final class HeapDoubles extends SolverBuffer {
+
+		private final double[] values;
+
+		HeapDoubles(double[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public long size() {
+			return this.values.length;
+		}
+
+		@Override
+		public double getDouble(long i) {
+			return this.values[(int) i];
+		}
+
+		@Override
+		public void putDouble(long i, double v) {
+			this.values[(int) i] = v;
+		}
+
+		@Override
+		public int getInt(long i) {
+			throw new UnsupportedOperationException("Column of doubles");
+		}
+
+		@Override
+		public void putInt(long i, int v) {
+			throw new UnsupportedOperationException("Column of doubles");
+		}
+
+		@Override
+		double backup(IndexedMDP model, int sFrom, int a, double gamma) {
+			return model.backup(sFrom, a, gamma, this.values);
+		}
+	}
+
+	private static final class HeapInts extends SolverBuffer {
+
+		private final int[] values;
+
+		HeapInts(int[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public long size() {
+			return this.values.length;
+		}
+
+		@Override
+		public double getDouble(long i) {
+			throw new UnsupportedOperationException("Column of ints");
+		}
+
+		@Override
+		public void putDouble(long i, double v) {
+			throw new UnsupportedOperationException("Column of ints");
+		}
+
+		@Override
+		public int getInt(long i) {
+			return this.values[(int) i];
+		}
+
+		@Override
+		public void putInt(long i, int v) {
+			this.values[(int) i] = v;
+		}
+
+		@Override
+		double backup(IndexedMDP model, int sFrom, int a, double gamma) {
+			throw new UnsupportedOperationException("Column of ints");
+		}
+	}
+
+	private static final class OffHeap extends SolverBuffer {
+
+		private final ChunkedBuffer buffer;
+
+		OffHeap(ChunkedBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public long size() {
+			return this.buffer.size();
+		}
+
+		@Override
+		public double getDouble(long i) {
+			return this.buffer.getDouble(i);
+		}
+
+		@Override
+		public void putDouble(long i, double v) {
+			this.buffer.putDouble(i, v);
+		}
+
+		@Override
+		public int getInt(long i) {
+			return this.buffer.getInt(i);
+		}
+
+		@Override
+		public void putInt(long i, int v) {
+			this.buffer.putInt(i, v);
+		}
+
+		@Override
+		double backup(IndexedMDP model, int sFrom, int a, double gamma) {
+			return model.backup(sFrom, a, gamma, this.buffer);
+		}
+	}
+
+}
@@ -1,12 +1,17 @@
 package simple.algorithms;
 
+import java.io.IOException;
 import java.util.*;
 
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import simple.MDP.Action;
+import simple.MDP.DumpWriter;
+import simple.MDP.IndexedMDP;
 import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
 import simple.MDP.State;
+import simple.sample.RandomStreams;
 
 /**
  * This class implements Value Iteration in an simple.MDP and a Gamma.
@@ -55,6 +60,11 @@ public class ValueIteration {
 	 */
 	private static int maxIter = 10000;
 
+	/**
+	 * Number of sweeps performed by the last call to run() or runQ().
+	 */
+	private int iterations;
+
 	/**
 	 * Constructor. 
 	 * 
@@ -114,37 +124,24 @@ public class ValueIteration {
 	 * Implements VI in this simple.MDP.
 	 */
 	public void run() {
-		int i = 0;
-		boolean convergence = false;
-		// Convergence criteria are: (1) number of iterations and (2) difference of absolute values.
-		while (i < maxIter && !convergence) {
-			convergence = true;
-			// For each state of the simple.MDP.
-			for (State state : this.mdp.getStates()) {
-				double maxSum = Double.NEGATIVE_INFINITY;
-				// Compute the value of the action with the highest expected reward.
-				for (Action action : this.mdp.getActions()) {
-					double sum = 0.0;
-					for(State sprime : this.mdp.getStates()) {
-						sum += this.mdp.getTransition(state, sprime, action) * (this.mdp.getReward(state, sprime, action) + this.gamma * this.V.get(sprime));
-					}
-					this.Q.put(state, action, sum);
-					if(sum > maxSum) {
-						maxSum = sum;
-					}
-				}
-				// Current Value
-				double currentV = this.V.get(state);
-				// Update the V value.
-				this.V.put(state, maxSum);
-				// If the difference between V values is greater than tolerance, then we have not converged.
-				if(convergence && (Math.abs(currentV - this.V.get(state)) > ValueIteration.tolerance)){
-					convergence = false;
-				}
+		ArrayValueIteration engine = this.engine(BackupKernel.MAX, ArrayValueIteration.UpdateOrder.GAUSS_SEIDEL);
+		MDPIndex index = engine.getModel().getIndex();
+		int numStates = index.getNumStates();
+		int numActions = index.getNumActions();
+		SolverBuffer v = engine.getValues();
+		for (int s = 0; s < numStates; s++) {
+			v.putDouble(s, this.V.get(index.getState(s)));
+		}
+		engine.run();
+		this.iterations = engine.getIterations();
+		for (int s = 0; s < numStates; s++) {
+			State state = index.getState(s);
+			this.V.put(state, engine.getValue(s));
+			for (int a = 0; a < numActions; a++) {
+				this.Q.put(state, index.getAction(a), engine.getQValue(s, a));
 			}
-			i++;
 		}
-//		System.out.println("Number of iters = " + i);
+//		System.out.println("Number of iters = " + engine.getIterations());
 	}
 
 	public Table<State, Action, Double> cloneTable(Table<State, Action, Double> toClone){
@@ -185,41 +182,66 @@ public class ValueIteration {
 				this.mdp.getDynamics().put(s, a, newDistro);
 			}
 		}
+		this.mdp.invalidateCache();
 	}
 
+	/**
+	 * Q-value iteration from the current Q function, with the max backup. Runs on the array engine with
+	 * double-buffered (Jacobi) sweeps and stops once no state value changes by more than the tolerance.
+	 */
 	public void runQ(){
-		int i = 0;
-		boolean convergence = false;
-		// Convergence criteria are: (1) number of iterations and (2) difference of absolute values.
-		while (i < maxIter && !convergence) {
-			convergence = true;
-			// For each state of the simple.MDP.
-			this.updateTransitionDynamics(this.Q);
-			for (State state : this.mdp.getStates()) {
-				double maxDiff = Double.NEGATIVE_INFINITY;
-				// Compute the value of the action with the highest expected reward.
-				for (Action action : this.mdp.getActions()) {
-					double oldQ = this.Q.get(state, action);
-					Table<State, Action, Double> oldQs = cloneTable(this.Q);
-					this.Q.put(state, action, 0.0);
-					for(State sprime : this.mdp.getStates()) {
-						this.Q.put(state, action, this.Q.get(state, action)
-//								+ (this.mdp.getTransition(state, sprime, action) * (this.mdp.getReward(state, sprime, action) + this.gamma * this.boltzmann(sprime, oldQs))));
-								+ (this.mdp.getTransition(state, sprime, action) * (this.mdp.getReward(state, sprime, action) + this.gamma * oldQs.row(sprime).values().stream().max(Double::compareTo).get())));
+		this.runQ(BackupKernel.MAX);
+	}
 
-					}
-					if(Math.abs(this.Q.get(state, action) - oldQ) > maxDiff) {
-						maxDiff = this.Q.get(state, action);
-					}
-				}
-				// If the difference between V values is greater than tolerance, then we have not converged.
-				if(convergence && maxDiff > ValueIteration.tolerance){
-					convergence = false;
-				}
+	/**
+	 * Generalized value iteration from the current Q function, where the value of a state is the
+	 * Boltzmann-weighted average of its Q-values with inverse temperature beta.
+	 */
+	public void runBoltzmannQ(){
+		this.runQ(new BoltzmannBackup(this.beta));
+	}
+
+	private void runQ(BackupKernel kernel){
+		ArrayValueIteration engine = this.engine(kernel, ArrayValueIteration.UpdateOrder.JACOBI);
+		MDPIndex index = engine.getModel().getIndex();
+		int numStates = index.getNumStates();
+		int numActions = index.getNumActions();
+		SolverBuffer v = engine.getValues();
+		SolverBuffer qValues = engine.getQValues();
+		double[] q = new double[numActions];
+		// The first sweep backs up the kernel value of the initial Q function.
+		for (int s = 0; s < numStates; s++) {
+			State state = index.getState(s);
+			for (int a = 0; a < numActions; a++) {
+				Double init = this.Q.get(state, index.getAction(a));
+				q[a] = init == null ? 0.0 : init;
+				qValues.putDouble((long) s * numActions + a, q[a]);
+			}
+			v.putDouble(s, kernel.value(q, 0, numActions));
+		}
+		engine.run();
+		this.iterations = engine.getIterations();
+		for (int s = 0; s < numStates; s++) {
+			State state = index.getState(s);
+			this.V.put(state, engine.getValue(s));
+			for (int a = 0; a < numActions; a++) {
+				this.Q.put(state, index.getAction(a), engine.getQValue(s, a));
 			}
-			i++;
 		}
-//		System.out.println("Finished in " + i + " iterations");
+//		System.out.println("Finished in " + this.iterations + " iterations");
+	}
+
+	/**
+	 * Builds the array engine over the compiled model, keeping V and Q off the heap when the model
+	 * lives there or its Q function does not fit in an array.
+	 */
+	private ArrayValueIteration engine(BackupKernel kernel, ArrayValueIteration.UpdateOrder order){
+		IndexedMDP model = this.mdp.compile();
+		ArrayValueIteration ret = new ArrayValueIteration(model, this.gamma, kernel, order,
+				ArrayValueIteration.Storage.of(model));
+		ret.setTolerance(ValueIteration.tolerance);
+		ret.setMaxIterations(ValueIteration.maxIter);
+		return ret;
 	}
 
 	/**
@@ -242,11 +264,64 @@ public class ValueIteration {
 			}
 
 //			System.err.println("Q-values: " + this.Q.toString());
-			int tie = new Random().nextInt(maxActions.size());
+			int tie = RandomStreams.current().nextInt(maxActions.size());
 			this.P.put(s, maxActions.get(tie));
 		}
 	}
 
+	/**
+	 * Seeds the V function, e.g. with the solution at a nearby gamma. States missing from values keep their current value.
+	 *
+	 * @param values
+	 */
+	public void setInitialValues(Map<State, Double> values){
+		for (State s : this.mdp.getStates()) {
+			Double v = values.get(s);
+			if (v != null) {
+				this.V.put(s, v);
+			}
+		}
+	}
+
+	/**
+	 * Seeds the Q function used by runQ(). Pairs missing from qValues keep their current value.
+	 *
+	 * @param qValues
+	 */
+	public void setInitialQ(Table<State, Action, Double> qValues){
+		for (Table.Cell<State, Action, Double> cell : qValues.cellSet()) {
+			if (this.mdp.getStates().contains(cell.getRowKey()) && this.mdp.getActions().contains(cell.getColumnKey())) {
+				this.Q.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Seeds the V function with the value of a policy, e.g. the optimal policy at a nearby gamma. The value
+	 * is solved for with BiCGSTAB, which only needs sparse products, rather than a cubic LU decomposition.
+	 *
+	 * @param policy
+	 */
+	public void setInitialPolicy(Map<State, Action> policy){
+		PolicyEvaluation pe = new PolicyEvaluation(this.mdp, this.gamma, policy);
+		pe.setMode(PolicyEvaluation.Mode.BICGSTAB);
+		pe.run();
+		this.setInitialValues(pe.getValueFunction());
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return the number of sweeps of the last run() or runQ().
+	 */
+	public int getIterations(){
+		return this.iterations;
+	}
+
+	public Map<State, Double> getValueFunction(){
+		return this.V;
+	}
+
 	public Map<State, Action> getPolicy(){
 	    return this.P;
     }
@@ -293,23 +368,38 @@ public class ValueIteration {
 		return ret;
 	}
 
+	/**
+	 * Streams the V function, the Q function and, once computed, the policy, for models too large for toString().
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void dump(DumpWriter out) throws IOException {
+		MDPIndex index = this.mdp.getIndex();
+		out.writeValues(index, s -> this.V.get(index.getState(s)));
+		out.writeQValues(index, (s, a) -> this.Q.get(index.getState(s), index.getAction(a)));
+		if (!this.P.isEmpty()) {
+			out.writePolicy(index, s -> index.getActionIndex(this.P.get(index.getState(s))));
+		}
+	}
+
 	@Override
 	public String toString() {
-		String ret = "\n V function:";
+		StringBuilder ret = new StringBuilder("\n V function:");
 		for (State s : this.mdp.getStates()) {
-			ret += "\n\t V(" + s.getId() + ") = " + this.V.get(s);
+			ret.append("\n\t V(").append(s.getId()).append(") = ").append(this.V.get(s));
 		}
-		ret += "\n\n Q function:";
+		ret.append("\n\n Q function:");
 		for (State s : this.mdp.getStates()) {
 			for (Action a : this.mdp.getActions()){
-				ret += "\n\t Q(" + s.getId() + "," + a.getId() + ") = " + this.Q.get(s,a);
+				ret.append("\n\t Q(").append(s.getId()).append(",").append(a.getId()).append(") = ").append(this.Q.get(s,a));
 			}
 		}
 
-		ret += "\n\n Policy:";
+		ret.append("\n\n Policy:");
 		for (State s : this.mdp.getStates()) {
-			ret += "\n\t Pi(" + s.getId() + ") = " + this.P.get(s);
+			ret.append("\n\t Pi(").append(s.getId()).append(") = ").append(this.P.get(s));
 		}
-		return ret;
+		return ret.toString();
 	}
 }
@@ -3,14 +3,18 @@ package simple.experiment.data;
 import com.google.common.collect.Lists;
 import simple.MDP.Action;
 import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
 import simple.MDP.State;
 import simple.MDP.Trajectory;
+import simple.MDP.TrajectoryDataset;
+import simple.MDP.TransitionCounts;
 import simple.MDP.exceptions.MDPException;
 import simple.sample.RandomMDP;
+import simple.sample.RandomStreams;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.stream.IntStream;
 
 /**
@@ -19,12 +23,37 @@ import java.util.stream.IntStream;
 public class DataGenerator {
 
     public static Trajectory generateTrajectory(int length, MDP mdp){
-        Trajectory ret = new Trajectory(mdp.getStates(), mdp.getActions());
-        State current = mdp.getRandomState();
+        return generateTrajectory(length, mdp, null);
+    }
+
+    /**
+     * Generates a trajectory following uniformly random actions, recording every step into counts.
+     *
+     * @param length
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @return the trajectory.
+     */
+    public static Trajectory generateTrajectory(int length, MDP mdp, TransitionCounts counts){
+        return generateTrajectory(length, mdp, counts, RandomStreams.current());
+    }
+
+    /**
+     * Generates a trajectory following uniformly random actions, drawing from the given stream.
+     *
+     * @param length
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @param rnd
+     * @return the trajectory.
+     */
+    public static Trajectory generateTrajectory(int length, MDP mdp, TransitionCounts counts, SplittableRandom rnd){
+        Trajectory ret = new Trajectory(mdp.getStates(), mdp.getActions(), counts);
+        State current = mdp.getRandomState(rnd);
         ret.intialize(current);
         while(ret.getLength() < length){
-            Action a = mdp.getRandomAction();
-            State next = mdp.sampleTransition(current, a);
+            Action a = mdp.getRandomAction(rnd);
+            State next = mdp.sampleTransition(current, a, rnd);
             double reward = mdp.getReward(current, next, a);
             ret.step(a, reward, next);
             current = next;
@@ -34,26 +63,163 @@ public class DataGenerator {
     }
 
     public static List<Trajectory> generateNTrajectories(int length, int N, MDP mdp){
+        return generateNTrajectories(length, N, mdp, null);
+    }
+
+    /**
+     * Generates N trajectories, recording every step into counts.
+     *
+     * @param length
+     * @param N
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @return the trajectories.
+     */
+    public static List<Trajectory> generateNTrajectories(int length, int N, MDP mdp, TransitionCounts counts){
+        return generateNTrajectories(length, N, mdp, counts, RandomStreams.current());
+    }
+
+    /**
+     * Generates N trajectories, drawing from the given stream.
+     *
+     * @param length
+     * @param N
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @param rnd
+     * @return the trajectories.
+     */
+    public static List<Trajectory> generateNTrajectories(int length, int N, MDP mdp, TransitionCounts counts, SplittableRandom rnd){
         List<Trajectory> ret = new ArrayList<>();
-        IntStream.range(0, N).forEach(i -> ret.add(generateTrajectory(length, mdp)));
+        IntStream.range(0, N).forEach(i -> ret.add(generateTrajectory(length, mdp, counts, rnd)));
         return ret;
     }
 
     public static Trajectory generateSATrajectory(State s, Action a, MDP mdp){
-        Trajectory ret = new Trajectory(mdp.getStates(), mdp.getActions());
+        return generateSATrajectory(s, a, mdp, null);
+    }
+
+    /**
+     * Generates a one-step trajectory taking a in s, recording the step into counts.
+     *
+     * @param s
+     * @param a
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @return the trajectory.
+     */
+    public static Trajectory generateSATrajectory(State s, Action a, MDP mdp, TransitionCounts counts){
+        return generateSATrajectory(s, a, mdp, counts, RandomStreams.current());
+    }
+
+    /**
+     * Generates a one-step trajectory taking a in s, drawing from the given stream.
+     *
+     * @param s
+     * @param a
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @param rnd
+     * @return the trajectory.
+     */
+    public static Trajectory generateSATrajectory(State s, Action a, MDP mdp, TransitionCounts counts, SplittableRandom rnd){
+        Trajectory ret = new Trajectory(mdp.getStates(), mdp.getActions(), counts);
         ret.intialize(s);
-        State next = mdp.sampleTransition(s, a);
+        State next = mdp.sampleTransition(s, a, rnd);
         double reward = mdp.getReward(s, next, a);
         ret.step(a, reward, next);
         return ret;
     }
 
     public static List<Trajectory> generateNSATrajectories(int n, MDP mdp){
+        return generateNSATrajectories(n, mdp, null);
+    }
+
+    /**
+     * Generates n one-step trajectories from every state-action pair, recording every step into counts.
+     *
+     * @param n
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @return the trajectories.
+     */
+    public static List<Trajectory> generateNSATrajectories(int n, MDP mdp, TransitionCounts counts){
+        return generateNSATrajectories(n, mdp, counts, RandomStreams.current());
+    }
+
+    /**
+     * Generates n one-step trajectories from every state-action pair, drawing from the given stream.
+     *
+     * @param n
+     * @param mdp
+     * @param counts - accumulator over the index of mdp, or null.
+     * @param rnd
+     * @return the trajectories.
+     */
+    public static List<Trajectory> generateNSATrajectories(int n, MDP mdp, TransitionCounts counts, SplittableRandom rnd){
         List<Trajectory> ret = new ArrayList<>();
         for(State s : mdp.getStates()){
             for(Action a : mdp.getActions()){
                 for(int i=0;i < n;i++){
-                    ret.add(generateSATrajectory(s, a, mdp));
+                    ret.add(generateSATrajectory(s, a, mdp, counts, rnd));
+                }
+            }
+        }
+        return ret;
+    }
+
+    public static TrajectoryDataset generateDataset(int length, int N, MDP mdp){
+        return generateDataset(length, N, mdp, RandomStreams.current());
+    }
+
+    /**
+     * Generates N trajectories straight into a columnar dataset. Draws the same numbers as
+     * generateNTrajectories, so the same stream gives the same data.
+     *
+     * @param length
+     * @param N
+     * @param mdp
+     * @param rnd
+     * @return the dataset, over the index of mdp.
+     */
+    public static TrajectoryDataset generateDataset(int length, int N, MDP mdp, SplittableRandom rnd){
+        MDPIndex index = mdp.getIndex();
+        TrajectoryDataset ret = new TrajectoryDataset(index);
+        for(int i = 0; i < N; i++){
+            State current = mdp.getRandomState(rnd);
+            ret.start(index.getStateIndex(current));
+            for(int step = 0; step < length; step++){
+                Action a = mdp.getRandomAction(rnd);
+                State next = mdp.sampleTransition(current, a, rnd);
+                ret.step(index.getActionIndex(a), mdp.getReward(current, next, a), index.getStateIndex(next));
+                current = next;
+            }
+        }
+        return ret;
+    }
+
+    public static TrajectoryDataset generateNSADataset(int n, MDP mdp){
+        return generateNSADataset(n, mdp, RandomStreams.current());
+    }
+
+    /**
+     * Generates n one-step trajectories from every state-action pair straight into a columnar dataset.
+     * Draws the same numbers as generateNSATrajectories.
+     *
+     * @param n
+     * @param mdp
+     * @param rnd
+     * @return the dataset, over the index of mdp.
+     */
+    public static TrajectoryDataset generateNSADataset(int n, MDP mdp, SplittableRandom rnd){
+        MDPIndex index = mdp.getIndex();
+        TrajectoryDataset ret = new TrajectoryDataset(index);
+        for(State s : mdp.getStates()){
+            for(Action a : mdp.getActions()){
+                for(int i=0;i < n;i++){
+                    State next = mdp.sampleTransition(s, a, rnd);
+                    ret.start(index.getStateIndex(s));
+                    ret.step(index.getActionIndex(a), mdp.getReward(s, next, a), index.getStateIndex(next));
                 }
             }
         }
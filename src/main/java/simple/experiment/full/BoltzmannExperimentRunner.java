@@ -4,9 +4,10 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import simple.MDP.MDP;
 import simple.MDP.State;
-import simple.MDP.Trajectory;
+import simple.MDP.TransitionCounts;
 import simple.MDP.exceptions.MDPException;
 import simple.algorithms.PolicyEvaluation;
+import simple.algorithms.SolutionCache;
 import simple.algorithms.ValueIteration;
 import simple.experiment.data.DataGenerator;
 import simple.experiment.model_based.MDPEstimator;
@@ -51,7 +52,8 @@ public class BoltzmannExperimentRunner {
         temps.add(10.0);
 
         for (Integer n : nVals) {
-            List<Trajectory> dataset = DataGenerator.generateNSATrajectories(n, randomMDP);
+            TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+            DataGenerator.generateNSATrajectories(n, randomMDP, dataset);
             for (Double temp : temps) {
                 MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
                 MDP estimatedMDP = estimator.getMdp();
@@ -61,6 +63,7 @@ public class BoltzmannExperimentRunner {
                 train_policy.computePolicy();
 
                 PolicyEvaluation train_eval = new PolicyEvaluation(estimatedMDP, gamma, train_policy.getPolicy());
+                train_eval.setMode(PolicyEvaluation.Mode.DIRECT);
                 train_eval.run();
                 Map<State, Double> v1 = train_eval.getValueFunction();
 
@@ -80,6 +83,7 @@ public class BoltzmannExperimentRunner {
                 test_policy.computePolicy();
 
                 PolicyEvaluation test_eval = new PolicyEvaluation(randomMDP, gamma, test_policy.getPolicy());
+                test_eval.setMode(PolicyEvaluation.Mode.DIRECT);
                 test_eval.run();
                 Map<State, Double> v2 = test_eval.getValueFunction();
 
@@ -108,6 +112,7 @@ public class BoltzmannExperimentRunner {
     public static void runFigure3Grid() throws MDPException {
         //Draw a single MDP from RandomMDP
         MDP randomMDP = RandomMDP.sample();
+        SolutionCache solutions = new SolutionCache();
 
         Table<Integer, Double, Double> results = HashBasedTable.create();
 
@@ -143,7 +148,8 @@ public class BoltzmannExperimentRunner {
 
         for(Integer n : nVals) {
             System.err.println("Running with " + n + " trajectories");
-            List<Trajectory> dataset = DataGenerator.generateNTrajectories(10, n, randomMDP);
+            TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+            DataGenerator.generateNTrajectories(10, n, randomMDP, dataset);
             MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
             MDP estimatedMDP = estimator.getMdp();
 
@@ -151,15 +157,9 @@ public class BoltzmannExperimentRunner {
                 System.err.println("Running with Boltzmann temperature " + temp);
                 double betaEval = 100.0;
 
-                ValueIteration vi1 = new ValueIteration(randomMDP, gamma);
-                vi1.run();
-                vi1.computePolicy();
-                System.err.println(vi1.getQ());
-
-                PolicyEvaluation pe1 = new PolicyEvaluation(randomMDP, gamma, vi1.getPolicy());
-//                PolicyEvaluation pe1 = new PolicyEvaluation(randomMDP, vi1.getStochasticPolicy());
-                pe1.run();
-                Map<State, Double> v1 = pe1.getValueFunction();
+                SolutionCache.Solution reference = solutions.getOptimal(randomMDP, gamma);
+                System.err.println(reference.getQ());
+                Map<State, Double> v1 = reference.getValueFunction();
 
                 ValueIteration vi2 = new ValueIteration(estimatedMDP, gamma, temp);
                 vi2.runQ();
@@ -167,6 +167,7 @@ public class BoltzmannExperimentRunner {
                 System.err.println(vi2.getQ());
 
                 PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, gamma, vi2.getPolicy());
+                pe2.setMode(PolicyEvaluation.Mode.DIRECT);
 //                PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, vi2.getStochasticPolicy());
                 pe2.run();
                 Map<State, Double> v2 = pe2.getValueFunction();
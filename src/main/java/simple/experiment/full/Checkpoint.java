@@ -0,0 +1,216 @@
+package simple.experiment.full;
+
+import simple.sample.RandomStreams;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only log of the completed (n, dataset, gamma) cells of a sweep, so that an interrupted sweep can resume
+ * where it stopped. Each line holds n,dataset,gamma,loss; the first line records the seed of RandomStreams, which a
+ * resumed sweep restores so that it draws the same MDP and the same remaining datasets.
+ *
+ * Lines are flushed at most FLUSH_INTERVAL_MS apart, and on close(). A line torn by a crash is dropped on resume.
+ */
+public class Checkpoint implements Closeable {
+
+    /**
+     * Longest time completed cells stay in memory only.
+     */
+    public static final long FLUSH_INTERVAL_MS = 5000;
+
+    private static final String SEED_HEADER = "# seed=";
+
+    /**
+     * Cell key.
+     */
+    private static final class Key {
+
+        private final int n;
+
+        private final int dataset;
+
+        private final double gamma;
+
+        Key(int n, int dataset, double gamma) {
+            this.n = n;
+            this.dataset = dataset;
+            this.gamma = gamma;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.n == other.n && this.dataset == other.dataset
+                    && Double.compare(this.gamma, other.gamma) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.n + this.dataset) + Double.hashCode(this.gamma);
+        }
+    }
+
+    /**
+     * Losses of the cells completed before this run.
+     */
+    private final Map<Key, Double> completed = new HashMap<>();
+
+    private final BufferedWriter writer;
+
+    private long lastFlush = System.currentTimeMillis();
+
+    /**
+     * Opens a checkpoint. When resuming an existing file, its cells are loaded and its seed is installed with
+     * RandomStreams.setSeed(); a file whose seed line was lost gets the current seed. Otherwise the file is started
+     * over with the current seed, which is refused for a non-empty file unless overwrite is set, so that restarting
+     * a sweep without resuming it does not destroy its completed cells.
+     *
+     * @param file
+     * @param resume
+     * @param overwrite - whether a non-empty file may be started over.
+     * @throws IOException
+     */
+    public Checkpoint(File file, boolean resume, boolean overwrite) throws IOException {
+        if (resume && file.exists()) {
+            truncateTornLine(file);
+            boolean seeded = this.load(file);
+            this.writer = new BufferedWriter(new FileWriter(file, true));
+            if (!seeded) {
+                System.err.println("Checkpoint " + file + " has no seed, recording the current one");
+                this.writer.write(SEED_HEADER + RandomStreams.getSeed() + "\n");
+                this.writer.flush();
+            }
+        } else {
+            if (!overwrite && file.length() > 0) {
+                throw new IOException("Checkpoint " + file + " already exists; resume it or overwrite it explicitly");
+            }
+            this.writer = new BufferedWriter(new FileWriter(file));
+            this.writer.write(SEED_HEADER + RandomStreams.getSeed() + "\n");
+            this.writer.flush();
+        }
+    }
+
+    /**
+     * @return whether the file records a seed.
+     */
+    private boolean load(File file) throws IOException {
+        boolean seeded = false;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(SEED_HEADER)) {
+                    RandomStreams.setSeed(Long.parseLong(line.substring(SEED_HEADER.length()).trim()));
+                    seeded = true;
+                    continue;
+                }
+                String[] fields = line.split(",");
+                this.completed.put(new Key(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                        Double.parseDouble(fields[2])), Double.parseDouble(fields[3]));
+            }
+        }
+        return seeded;
+    }
+
+    /**
+     * Cuts a line torn by a crash off the end of the file.
+     */
+    private static void truncateTornLine(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long end = raf.length();
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            raf.setLength(end);
+        }
+    }
+
+    /**
+     * @param n
+     * @param dataset
+     * @param gamma
+     * @return whether the cell was completed before this run.
+     */
+    public boolean isDone(int n, int dataset, double gamma) {
+        return this.completed.containsKey(new Key(n, dataset, gamma));
+    }
+
+    /**
+     * @param n
+     * @param dataset
+     * @param gammas
+     * @return whether every gamma of the dataset was completed before this run.
+     */
+    public boolean isDone(int n, int dataset, Collection<Double> gammas) {
+        for (Double gamma : gammas) {
+            if (!this.isDone(n, dataset, gamma)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the cells completed before this run into a sink.
+     *
+     * @param sink
+     */
+    public void replay(ResultSink<Integer, Double> sink) {
+        for (Map.Entry<Key, Double> entry : this.completed.entrySet()) {
+            Key key = entry.getKey();
+            sink.record(key.n, key.gamma, key.dataset, entry.getValue());
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the number of cells completed before this run.
+     */
+    public int getNumCompleted() {
+        return this.completed.size();
+    }
+
+    /**
+     * Logs a completed cell. Safe to call from any number of threads at once.
+     *
+     * @param n
+     * @param dataset
+     * @param gamma
+     * @param loss
+     */
+    public synchronized void record(int n, int dataset, double gamma, double loss) {
+        try {
+            this.writer.write(n + "," + dataset + "," + gamma + "," + loss + "\n");
+            long now = System.currentTimeMillis();
+            if (now - this.lastFlush >= FLUSH_INTERVAL_MS) {
+                this.writer.flush();
+                this.lastFlush = now;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.writer.close();
+    }
+}
@@ -6,13 +6,15 @@ import com.google.common.collect.Table;
 import simple.MDP.Action;
 import simple.MDP.MDP;
 import simple.MDP.State;
-import simple.MDP.Trajectory;
+import simple.MDP.TransitionCounts;
 import simple.MDP.exceptions.MDPException;
 import simple.algorithms.PolicyEvaluation;
+import simple.algorithms.SolutionCache;
 import simple.algorithms.ValueIteration;
 import simple.experiment.data.DataGenerator;
 import simple.experiment.model_based.MDPEstimator;
 import simple.sample.RandomMDP;
+import simple.sample.RandomStreams;
 
 import java.util.*;
 
@@ -50,16 +52,19 @@ public class EpsilonExperimentRunner {
         epsilons.add(1.0);
 
         for (Integer n : nVals) {
-            List<Trajectory> dataset = DataGenerator.generateNSATrajectories(n, randomMDP);
+            TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+            DataGenerator.generateNSATrajectories(n, randomMDP, dataset);
+            // One estimate per dataset, each epsilon only blends it with its action mean.
+            MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
             for (Double epsilon : epsilons) {
-                MDPEstimator estimator = new MDPEstimator(epsilon, randomMDP.getStates(), randomMDP.getActions(), dataset);
-                MDP estimatedMDP = estimator.getMdp();
+                MDP estimatedMDP = estimator.getMdp(epsilon);
 
                 ValueIteration train_policy = new ValueIteration(estimatedMDP, gamma);
                 train_policy.run();
                 train_policy.computePolicy();
 
                 PolicyEvaluation train_eval = new PolicyEvaluation(estimatedMDP, gamma, 0.0, train_policy.getPolicy());
+                train_eval.setMode(PolicyEvaluation.Mode.DIRECT);
                 train_eval.run();
                 Map<State, Double> v1 = train_eval.getValueFunction();
 
@@ -79,6 +84,7 @@ public class EpsilonExperimentRunner {
                 test_policy.computePolicy();
 
                 PolicyEvaluation test_eval = new PolicyEvaluation(randomMDP, gamma, 0.0, test_policy.getPolicy());
+                test_eval.setMode(PolicyEvaluation.Mode.DIRECT);
                 test_eval.run();
                 Map<State, Double> v2 = test_eval.getValueFunction();
 
@@ -107,6 +113,7 @@ public class EpsilonExperimentRunner {
     public static void runFigure3Grid() throws MDPException {
         //Draw a single MDP from RandomMDP
         MDP randomMDP = RandomMDP.sample();
+        SolutionCache solutions = new SolutionCache();
 
         Table<Integer, Double, Double> results = HashBasedTable.create();
 
@@ -132,25 +139,23 @@ public class EpsilonExperimentRunner {
         epsilons.add(1.0);
 
         for(Integer n : nVals) {
-            List<Trajectory> dataset = DataGenerator.generateNTrajectories(10, n, randomMDP);
+            TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+            DataGenerator.generateNTrajectories(10, n, randomMDP, dataset);
 
+            // One estimate per dataset, each epsilon only blends it with its action mean.
+            MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
             for (Double epsilon : epsilons) {
-                MDPEstimator estimator = new MDPEstimator(epsilon, randomMDP.getStates(), randomMDP.getActions(), dataset);
-                MDP estimatedMDP = estimator.getMdp();
+                MDP estimatedMDP = estimator.getMdp(epsilon);
 
-                ValueIteration vi1 = new ValueIteration(randomMDP, gamma);
-                vi1.run();
-                vi1.computePolicy();
-
-                PolicyEvaluation pe1 = new PolicyEvaluation(randomMDP, gamma, vi1.getPolicy());
-                pe1.run();
-                Map<State, Double> v1 = pe1.getValueFunction();
+                SolutionCache.Solution reference = solutions.getOptimal(randomMDP, gamma);
+                Map<State, Double> v1 = reference.getValueFunction();
 
                 ValueIteration vi2 = new ValueIteration(estimatedMDP, gamma);
                 vi2.run();
                 vi2.computePolicy();
 
                 PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, gamma, vi2.getPolicy());
+                pe2.setMode(PolicyEvaluation.Mode.DIRECT);
                 pe2.run();
                 Map<State, Double> v2 = pe2.getValueFunction();
 
@@ -189,7 +194,7 @@ public class EpsilonExperimentRunner {
 
         Map<Double, Integer> results = new HashMap<>();
 
-        Random rndg = new Random();
+        SplittableRandom rndg = RandomStreams.current();
 
         for(Double epsilon : epsilons){
             MDP randomMDP = RandomMDP.sample();
@@ -6,13 +6,17 @@ import com.google.common.collect.Table;
 import simple.MDP.Action;
 import simple.MDP.MDP;
 import simple.MDP.State;
-import simple.MDP.Trajectory;
+import simple.MDP.TransitionCounts;
 import simple.MDP.exceptions.MDPException;
+import simple.algorithms.GammaPolicyPath;
+import simple.algorithms.GammaSweep;
 import simple.algorithms.PolicyEvaluation;
+import simple.algorithms.SolutionCache;
 import simple.algorithms.ValueIteration;
 import simple.experiment.data.DataGenerator;
 import simple.experiment.model_based.MDPEstimator;
 import simple.sample.RandomMDP;
+import simple.sample.RandomStreams;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -53,18 +57,20 @@ public class GammaExperimentRunner {
         gammas.add(0.99);
 
         for (Integer n : nVals) {
-            List<Trajectory> dataset = DataGenerator.generateNSATrajectories(n, randomMDP);
+            TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+            DataGenerator.generateNSATrajectories(n, randomMDP, dataset);
             MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
             MDP estimatedMDP = estimator.getMdp();
+            GammaPolicyPath path = new GammaPolicyPath(estimatedMDP, gammas.get(gammas.size() - 1));
+            path.run(gammas);
 
             for (Double gamma : gammas) {
                 double gammaEval = 0.99;
 
-                ValueIteration train_policy = new ValueIteration(estimatedMDP, gamma);
-                train_policy.run();
-                train_policy.computePolicy();
+                Map<State, Action> train_policy = path.getPolicy(gamma);
 
-                PolicyEvaluation train_eval = new PolicyEvaluation(estimatedMDP, gammaEval, train_policy.getPolicy());
+                PolicyEvaluation train_eval = new PolicyEvaluation(estimatedMDP, gammaEval, train_policy);
+                train_eval.setMode(PolicyEvaluation.Mode.DIRECT);
                 train_eval.run();
                 Map<State, Double> v1 = train_eval.getValueFunction();
 
@@ -79,11 +85,10 @@ public class GammaExperimentRunner {
                 }
                 results.get(n, gamma).put(0, trainingLoss);
 
-                ValueIteration test_policy = new ValueIteration(estimatedMDP, gamma);
-                test_policy.run();
-                test_policy.computePolicy();
+                Map<State, Action> test_policy = path.getPolicy(gamma);
 
-                PolicyEvaluation test_eval = new PolicyEvaluation(randomMDP, gammaEval, test_policy.getPolicy());
+                PolicyEvaluation test_eval = new PolicyEvaluation(randomMDP, gammaEval, test_policy);
+                test_eval.setMode(PolicyEvaluation.Mode.DIRECT);
                 test_eval.run();
                 Map<State, Double> v2 = test_eval.getValueFunction();
 
@@ -109,14 +114,24 @@ public class GammaExperimentRunner {
         }
     }
 
-    public static void runFigure3() throws MDPException {
+    public static void runFigure3() throws MDPException, IOException {
 
         long startTime = System.currentTimeMillis();
 
+        // Completed cells are logged as they finish; -Dsimple.resume=true skips the ones already logged, and an
+        // existing log is only started over with -Dsimple.overwrite=true.
+        // Opened first, since resuming restores the seed the MDP is drawn with.
+        File checkpointFile = new File(System.getProperty("simple.checkpoint", "figure3_checkpoint.csv"));
+        Checkpoint checkpoint = new Checkpoint(checkpointFile, Boolean.getBoolean("simple.resume"),
+                Boolean.getBoolean("simple.overwrite"));
+
         //Draw a single MDP from RandomMDP
         MDP randomMDP = RandomMDP.sample();
+        SolutionCache solutions = new SolutionCache();
 
-        Table<Integer, Double, List<Double>> results = HashBasedTable.create();
+        // Only summaries are kept unless raw losses are asked for with -Dsimple.raw=true.
+        boolean dumpRaw = Boolean.getBoolean("simple.raw");
+        ResultSink<Integer, Double> sink = new ResultSink<>(dumpRaw);
 
         List<Integer> nVals = new ArrayList<>();
         nVals.add(5);
@@ -139,64 +154,96 @@ public class GammaExperimentRunner {
 
         int numDatasets = 1000;
 
-        for(Integer n : nVals){
-            System.out.println("Running on " + n + " trajectories of length 10");
-            IntStream.range(0, numDatasets).parallel().forEach(i -> {
-                try {
-                    System.out.println("Runing on dataset " + (i+1) + " of " + numDatasets);
-                    List<Trajectory> dataset = DataGenerator.generateNTrajectories(10, n, randomMDP);
-                    MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
-                    MDP estimatedMDP = estimator.getMdp();
-
-                    for (Double gamma : gammas) {
-                        //System.out.println("Running for gamma = " + gamma);
-                        double gammaEval = 0.99;
-
-                        ValueIteration vi1 = new ValueIteration(randomMDP, gammaEval);
-                        vi1.run();
-                        vi1.computePolicy();
-
-                        PolicyEvaluation pe1 = new PolicyEvaluation(randomMDP, gammaEval, vi1.getPolicy());
-                        pe1.run();
-                        Map<State, Double> v1 = pe1.getValueFunction();
-
-                        ValueIteration vi2 = new ValueIteration(estimatedMDP, gamma);
-                        vi2.run();
-                        vi2.computePolicy();
-
-                        PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, gammaEval, vi2.getPolicy());
-                        pe2.run();
-                        Map<State, Double> v2 = pe2.getValueFunction();
-
-                        double sumDiff = 0.0;
-                        for (State s : randomMDP.getStates()) {
-                            sumDiff += v1.get(s) - v2.get(s);
-                        }
+        checkpoint.replay(sink);
+        if(checkpoint.getNumCompleted() > 0){
+            System.out.println("Resuming with " + checkpoint.getNumCompleted() + " completed cells from " + checkpointFile);
+        }
 
-                        double empiricalLoss = sumDiff / randomMDP.getStates().size();
-                        if (results.get(n, gamma) == null) {
-                            results.put(n, gamma, new ArrayList<>());
+        try {
+            for(Integer n : nVals){
+                System.out.println("Running on " + n + " trajectories of length 10");
+                IntStream.range(0, numDatasets).parallel().forEach(i -> {
+                    if(checkpoint.isDone(n, i, gammas)){
+                        return;
+                    }
+                    // Dataset i of size n draws from its own stream, whichever worker runs it.
+                    SplittableRandom previous = RandomStreams.setCurrent(RandomStreams.stream(n, i));
+                    try {
+                        System.out.println("Runing on dataset " + (i+1) + " of " + numDatasets);
+                        TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+                        DataGenerator.generateNTrajectories(10, n, randomMDP, dataset);
+                        MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
+                        MDP estimatedMDP = estimator.getMdp();
+                        GammaSweep sweep = new GammaSweep(estimatedMDP, gammas);
+                        sweep.run();
+
+                        for (Double gamma : gammas) {
+                            if (checkpoint.isDone(n, i, gamma)) {
+                                continue;
+                            }
+                            //System.out.println("Running for gamma = " + gamma);
+                            double gammaEval = 0.99;
+
+                            SolutionCache.Solution reference = solutions.getOptimal(randomMDP, gammaEval);
+                            Map<State, Double> v1 = reference.getValueFunction();
+
+                            ValueIteration vi2 = sweep.getSolution(gamma);
+
+                            PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, gammaEval, vi2.getPolicy());
+                            pe2.setMode(PolicyEvaluation.Mode.DIRECT);
+                            pe2.run();
+                            Map<State, Double> v2 = pe2.getValueFunction();
+
+                            double sumDiff = 0.0;
+                            for (State s : randomMDP.getStates()) {
+                                sumDiff += v1.get(s) - v2.get(s);
+                            }
+
+                            double empiricalLoss = sumDiff / randomMDP.getStates().size();
+                            sink.record(n, gamma, i, empiricalLoss);
+                            checkpoint.record(n, i, gamma, empiricalLoss);
                         }
-                        results.get(n, gamma).add(empiricalLoss);
+                    } catch (MDPException e) {
+                        e.printStackTrace();
+                    } finally {
+                        RandomStreams.setCurrent(previous);
                     }
-                } catch (MDPException e) {
-                    e.printStackTrace();
-                }
-            });
+                });
+            }
+        } finally {
+            checkpoint.close();
         }
 
-        try(BufferedWriter bw = new BufferedWriter(new FileWriter(new File("figure3_results.csv")))){
+        Table<Integer, Double, StreamingStats> summaries = sink.getStatistics();
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(new File("figure3_summary.csv")))){
+            bw.write("n,gamma,count,mean,std,min,p05,median,p95,max\n");
             for(Integer n : nVals){
                 for(Double gamma : gammas){
-                    for(Double loss : results.get(n, gamma)){
-                        bw.write(n + "," + gamma + "," + loss + "\n");
-                    }
+                    StreamingStats stats = summaries.get(n, gamma);
+                    bw.write(n + "," + gamma + "," + stats.getCount() + "," + stats.getMean() + ","
+                            + stats.getStandardDeviation() + "," + stats.getMin() + "," + stats.getQuantile(0.05) + ","
+                            + stats.getQuantile(0.5) + "," + stats.getQuantile(0.95) + "," + stats.getMax() + "\n");
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        if(dumpRaw) {
+            Table<Integer, Double, List<Double>> results = sink.getResults();
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File("figure3_results.csv")))) {
+                for (Integer n : nVals) {
+                    for (Double gamma : gammas) {
+                        for (Double loss : results.get(n, gamma)) {
+                            bw.write(n + "," + gamma + "," + loss + "\n");
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
         long stopTime = System.currentTimeMillis();
         long elapsedTime = stopTime - startTime;
         System.out.println(elapsedTime);
@@ -206,6 +253,7 @@ public class GammaExperimentRunner {
     public static void runFigure3Grid() throws MDPException {
         //Draw a single MDP from RandomMDP
         MDP randomMDP = RandomMDP.sample();
+        SolutionCache solutions = new SolutionCache();
 
         Table<Integer, Double, Double> results = HashBasedTable.create();
 
@@ -229,26 +277,21 @@ public class GammaExperimentRunner {
         gammas.add(0.99);
 
         for(Integer n : nVals) {
-            List<Trajectory> dataset = DataGenerator.generateNTrajectories(10, n, randomMDP);
+            TransitionCounts dataset = new TransitionCounts(randomMDP.getIndex());
+            DataGenerator.generateNTrajectories(10, n, randomMDP, dataset);
             MDPEstimator estimator = new MDPEstimator(randomMDP.getStates(), randomMDP.getActions(), dataset);
             MDP estimatedMDP = estimator.getMdp();
+            GammaPolicyPath path = new GammaPolicyPath(estimatedMDP, gammas.get(gammas.size() - 1));
+            path.run(gammas);
 
             for (Double gamma : gammas) {
                 double gammaEval = 0.99;
 
-                ValueIteration vi1 = new ValueIteration(randomMDP, gammaEval);
-                vi1.run();
-                vi1.computePolicy();
-
-                PolicyEvaluation pe1 = new PolicyEvaluation(randomMDP, gammaEval, vi1.getPolicy());
-                pe1.run();
-                Map<State, Double> v1 = pe1.getValueFunction();
-
-                ValueIteration vi2 = new ValueIteration(estimatedMDP, gamma);
-                vi2.run();
-                vi2.computePolicy();
+                SolutionCache.Solution reference = solutions.getOptimal(randomMDP, gammaEval);
+                Map<State, Double> v1 = reference.getValueFunction();
 
-                PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, gammaEval, vi2.getPolicy());
+                PolicyEvaluation pe2 = new PolicyEvaluation(randomMDP, gammaEval, path.getPolicy(gamma));
+                pe2.setMode(PolicyEvaluation.Mode.DIRECT);
                 pe2.run();
                 Map<State, Double> v2 = pe2.getValueFunction();
 
@@ -285,7 +328,7 @@ public class GammaExperimentRunner {
 
         Map<Double, Integer> results = new HashMap<>();
 
-        Random rndg = new Random();
+        SplittableRandom rndg = RandomStreams.current();
 
         for(Double gamma : gammas){
             MDP randomMDP = RandomMDP.sample();
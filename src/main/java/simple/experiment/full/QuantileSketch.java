@@ -0,0 +1,205 @@
+package simple.experiment.full;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch in the style of Karnin, Lang and Liberty (KLL). Values go into a
+ * hierarchy of compactors; level h holds values standing for 2^h inputs each. A full compactor
+ * is sorted and every other value is promoted to the next level, so memory stays O(k) levels
+ * deep whatever the number of inputs, and the rank error is about 1.7 / k.
+ *
+ * The choice between odd and even values alternates instead of being random, which keeps the
+ * sketch deterministic for a given sequence of adds and merges. Sketches merged in a different
+ * order, e.g. the per-thread sketches of a parallel run, may answer slightly different quantiles.
+ * Fewer than k values are never compacted, so their quantiles are exact.
+ */
+public class QuantileSketch {
+
+    /**
+     * Default capacity of the top compactor.
+     */
+    public static final int DEFAULT_K = 200;
+
+    /**
+     * Capacity of the top compactor; lower levels are smaller by a factor 2/3 per level.
+     */
+    private final int k;
+
+    /**
+     * Values of each level, the first sizes[h] entries are used.
+     */
+    private double[][] levels;
+
+    /**
+     * Number of values in each level.
+     */
+    private int[] sizes;
+
+    /**
+     * Number of levels in use.
+     */
+    private int numLevels;
+
+    /**
+     * Number of values added.
+     */
+    private long count;
+
+    /**
+     * Whether the next compaction promotes odd positions.
+     */
+    private boolean odd;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k - capacity of the top compactor, at least 8.
+     */
+    public QuantileSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8, got " + k);
+        }
+        this.k = k;
+        this.levels = new double[][]{new double[k]};
+        this.sizes = new int[1];
+        this.numLevels = 1;
+    }
+
+    public void add(double x) {
+        this.append(0, x);
+        this.count++;
+        if (this.sizes[0] >= this.capacity(0)) {
+            this.compress();
+        }
+    }
+
+    /**
+     * Adds the values summarized by another sketch with the same k.
+     *
+     * @param other
+     */
+    public void merge(QuantileSketch other) {
+        if (other.k != this.k) {
+            throw new IllegalArgumentException("Cannot merge sketches with k = " + this.k + " and " + other.k);
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                this.append(h, other.levels[h][i]);
+            }
+        }
+        this.count += other.count;
+        this.compress();
+    }
+
+    /**
+     * @param q - in [0, 1].
+     * @return an approximate q-quantile of the values added, or NaN if there are none.
+     */
+    public double getQuantile(double q) {
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+        int n = 0;
+        for (int h = 0; h < this.numLevels; h++) {
+            n += this.sizes[h];
+        }
+        // Values and weights, sorted together by value through their positions.
+        double[] values = new double[n];
+        long[] weights = new long[n];
+        int j = 0;
+        long total = 0;
+        for (int h = 0; h < this.numLevels; h++) {
+            for (int i = 0; i < this.sizes[h]; i++) {
+                values[j] = this.levels[h][i];
+                weights[j] = 1L << h;
+                total += weights[j];
+                j++;
+            }
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        double target = q * total;
+        long cumulative = 0;
+        for (int i : order) {
+            cumulative += weights[i];
+            if (cumulative >= target) {
+                return values[i];
+            }
+        }
+        return values[order[n - 1]];
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the number of values added.
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @param h
+     * @return the number of values level h holds before it is compacted.
+     */
+    private int capacity(int h) {
+        int depth = this.numLevels - 1 - h;
+        return Math.max(2, (int) Math.ceil(this.k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void append(int h, double x) {
+        while (h >= this.numLevels) {
+            this.addLevel();
+        }
+        if (this.sizes[h] == this.levels[h].length) {
+            this.levels[h] = Arrays.copyOf(this.levels[h], 2 * this.levels[h].length);
+        }
+        this.levels[h][this.sizes[h]++] = x;
+    }
+
+    private void addLevel() {
+        if (this.numLevels == this.levels.length) {
+            this.levels = Arrays.copyOf(this.levels, 2 * this.numLevels);
+            this.sizes = Arrays.copyOf(this.sizes, 2 * this.numLevels);
+        }
+        this.levels[this.numLevels] = new double[this.k];
+        this.numLevels++;
+    }
+
+    /**
+     * Compacts every level over capacity, from the bottom up.
+     */
+    private void compress() {
+        for (int h = 0; h < this.numLevels; h++) {
+            if (this.sizes[h] < this.capacity(h)) {
+                continue;
+            }
+            if (h + 1 == this.numLevels) {
+                this.addLevel();
+            }
+            double[] level = this.levels[h];
+            int size = this.sizes[h];
+            Arrays.sort(level, 0, size);
+            // An odd value out stays behind at this level.
+            int even = size & ~1;
+            for (int i = this.odd ? 1 : 0; i < even; i += 2) {
+                this.append(h + 1, level[i]);
+            }
+            this.odd = !this.odd;
+            if (even < size) {
+                level[0] = level[size - 1];
+                this.sizes[h] = 1;
+            } else {
+                this.sizes[h] = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package simple.experiment.full;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects results of parallel experiment runs without locking. Every thread appends to its own buffer,
+ * and the buffers are merged into a table of (row, column) -> values once the parallel section is over.
+ * Each value carries the index of the run that produced it (e.g. the dataset index), and merged values
+ * are ordered by it, so the output does not depend on scheduling.
+ *
+ * Every (row, column) also gets a StreamingStats summary. A sink that keeps raw values computes it from
+ * the ordered values, with exact quantiles, so it does not depend on scheduling either. A sink that does
+ * not keep raw values only holds per-thread summaries, so its memory does not grow with the number of
+ * runs, but which thread saw which value depends on scheduling: its quantiles are approximate and may
+ * vary between runs with the same seed, as may the last bits of the mean and standard deviation.
+ *
+ * @param <R> row key, e.g. the number of trajectories.
+ * @param <C> column key, e.g. gamma.
+ */
+public class ResultSink<R, C> {
+
+    /**
+     * Results recorded by one thread, in recording order.
+     */
+    private static class Buffer {
+
+        private final Table<Object, Object, StreamingStats> stats = HashBasedTable.create();
+
+        private Object[] rows = new Object[64];
+
+        private Object[] columns = new Object[64];
+
+        private int[] indices = new int[64];
+
+        private double[] values = new double[64];
+
+        private int size;
+
+        void add(Object row, Object column, int index, double value) {
+            if (this.size == this.values.length) {
+                int capacity = 2 * this.size;
+                this.rows = Arrays.copyOf(this.rows, capacity);
+                this.columns = Arrays.copyOf(this.columns, capacity);
+                this.indices = Arrays.copyOf(this.indices, capacity);
+                this.values = Arrays.copyOf(this.values, capacity);
+            }
+            this.rows[this.size] = row;
+            this.columns[this.size] = column;
+            this.indices[this.size] = index;
+            this.values[this.size] = value;
+            this.size++;
+        }
+    }
+
+    /**
+     * A recorded value with its run index, for sorting.
+     */
+    private static class Entry {
+
+        private final int index;
+
+        private final double value;
+
+        Entry(int index, double value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Whether raw values are kept besides the summaries.
+     */
+    private final boolean keepRaw;
+
+    /**
+     * Buffer of each thread that recorded into this sink.
+     */
+    private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Buffer of the calling thread.
+     */
+    private final ThreadLocal<Buffer> local = ThreadLocal.withInitial(() -> {
+        Buffer ret = new Buffer();
+        this.buffers.add(ret);
+        return ret;
+    });
+
+    /**
+     * Constructor. Raw values are kept.
+     */
+    public ResultSink() {
+        this(true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keepRaw - whether to keep every value, or only their summaries.
+     */
+    public ResultSink(boolean keepRaw) {
+        this.keepRaw = keepRaw;
+    }
+
+    /**
+     * Records a value. Safe to call from any number of threads at once.
+     *
+     * @param row
+     * @param column
+     * @param index - index of the run that produced the value, which orders the merged values.
+     * @param value
+     */
+    public void record(R row, C column, int index, double value) {
+        Buffer buffer = this.local.get();
+        StreamingStats cell = buffer.stats.get(row, column);
+        if (cell == null) {
+            cell = new StreamingStats();
+            buffer.stats.put(row, column, cell);
+        }
+        cell.add(value);
+        if (this.keepRaw) {
+            buffer.add(row, column, index, value);
+        }
+    }
+
+    /**
+     * Merges the buffers of all threads. Must only be called once the threads are done recording,
+     * e.g. after the parallel stream that records returns.
+     *
+     * @return the values of each (row, column), ordered by run index.
+     */
+    @SuppressWarnings("unchecked")
+    public Table<R, C, List<Double>> getResults() {
+        if (!this.keepRaw) {
+            throw new IllegalStateException("This sink only keeps summaries, use getStatistics()");
+        }
+        Table<R, C, List<Entry>> entries = HashBasedTable.create();
+        for (Buffer buffer : this.buffers) {
+            for (int i = 0; i < buffer.size; i++) {
+                R row = (R) buffer.rows[i];
+                C column = (C) buffer.columns[i];
+                List<Entry> cell = entries.get(row, column);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    entries.put(row, column, cell);
+                }
+                cell.add(new Entry(buffer.indices[i], buffer.values[i]));
+            }
+        }
+        Table<R, C, List<Double>> ret = HashBasedTable.create();
+        for (Table.Cell<R, C, List<Entry>> cell : entries.cellSet()) {
+            List<Entry> sorted = cell.getValue();
+            // Stable, so values of one run keep their recording order.
+            sorted.sort(Comparator.comparingInt(e -> e.index));
+            List<Double> values = new ArrayList<>(sorted.size());
+            for (Entry e : sorted) {
+                values.add(e.value);
+            }
+            ret.put(cell.getRowKey(), cell.getColumnKey(), values);
+        }
+        return ret;
+    }
+
+    /**
+     * Summarizes the values of each (row, column). Must only be called once the threads are done recording.
+     *
+     * @return the summary of the values of each (row, column), computed from the values ordered by run
+     * index if they are kept, merged from the summaries of all threads otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    public Table<R, C, StreamingStats> getStatistics() {
+        Table<R, C, StreamingStats> ret = HashBasedTable.create();
+        if (this.keepRaw) {
+            for (Table.Cell<R, C, List<Double>> cell : this.getResults().cellSet()) {
+                List<Double> values = cell.getValue();
+                // Large enough for the sketch never to compact, so quantiles are exact.
+                StreamingStats stats = new StreamingStats(Math.max(8, values.size() + 1));
+                for (double value : values) {
+                    stats.add(value);
+                }
+                ret.put(cell.getRowKey(), cell.getColumnKey(), stats);
+            }
+            return ret;
+        }
+        for (Buffer buffer : this.buffers) {
+            for (Table.Cell<Object, Object, StreamingStats> cell : buffer.stats.cellSet()) {
+                R row = (R) cell.getRowKey();
+                C column = (C) cell.getColumnKey();
+                StreamingStats merged = ret.get(row, column);
+                if (merged == null) {
+                    merged = new StreamingStats();
+                    ret.put(row, column, merged);
+                }
+                merged.merge(cell.getValue());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of values recorded. Like getResults(), only exact once the threads are done recording.
+     */
+    public long size() {
+        long ret = 0;
+        for (Buffer buffer : this.buffers) {
+            for (StreamingStats cell : buffer.stats.values()) {
+                ret += cell.getCount();
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,119 @@
+package simple.experiment.full;
+
+/**
+ * Summary of a stream of values in constant memory: count, mean and variance (Welford's
+ * algorithm), min, max and approximate quantiles. Summaries of disjoint streams, e.g. of the
+ * values seen by different threads, are merged with merge().
+ */
+public class StreamingStats {
+
+    /**
+     * Number of values.
+     */
+    private long count;
+
+    /**
+     * Running mean.
+     */
+    private double mean;
+
+    /**
+     * Sum of squared differences from the mean.
+     */
+    private double m2;
+
+    /**
+     * Smallest value.
+     */
+    private double min = Double.POSITIVE_INFINITY;
+
+    /**
+     * Largest value.
+     */
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Quantiles.
+     */
+    private final QuantileSketch sketch;
+
+    public StreamingStats() {
+        this.sketch = new QuantileSketch();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k - capacity of the quantile sketch, at least 8; quantiles are exact for fewer than k values.
+     */
+    public StreamingStats(int k) {
+        this.sketch = new QuantileSketch(k);
+    }
+
+    public void add(double x) {
+        this.count++;
+        double delta = x - this.mean;
+        this.mean += delta / this.count;
+        this.m2 += delta * (x - this.mean);
+        this.min = Math.min(this.min, x);
+        this.max = Math.max(this.max, x);
+        this.sketch.add(x);
+    }
+
+    /**
+     * Adds the values summarized by other (Chan et al.'s pairwise update).
+     *
+     * @param other
+     */
+    public void merge(StreamingStats other) {
+        if (other.count == 0) {
+            return;
+        }
+        long n = this.count + other.count;
+        double delta = other.mean - this.mean;
+        this.mean += delta * other.count / n;
+        this.m2 += other.m2 + delta * delta * ((double) this.count * other.count / n);
+        this.count = n;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        this.sketch.merge(other.sketch);
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public double getMean() {
+        return this.count == 0 ? Double.NaN : this.mean;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the sample variance, or NaN for fewer than two values.
+     */
+    public double getVariance() {
+        return this.count < 2 ? Double.NaN : this.m2 / (this.count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(this.getVariance());
+    }
+
+    public double getMin() {
+        return this.count == 0 ? Double.NaN : this.min;
+    }
+
+    public double getMax() {
+        return this.count == 0 ? Double.NaN : this.max;
+    }
+
+    /**
+     * @param q - in [0, 1].
+     * @return an approximate q-quantile, with a rank error of about 1% once the sketch compacts.
+     */
+    public double getQuantile(double q) {
+        return this.sketch.getQuantile(q);
+    }
+
+}
@@ -0,0 +1,326 @@
+package simple.experiment.grid;
+
+import com.google.common.collect.Table;
+import simple.MDP.Action;
+import simple.MDP.MDP;
+import simple.MDP.State;
+import simple.MDP.TransitionCounts;
+import simple.MDP.exceptions.MDPException;
+import simple.algorithms.GammaSweep;
+import simple.algorithms.PolicyEvaluation;
+import simple.algorithms.PolicyIteration;
+import simple.algorithms.SolutionCache;
+import simple.algorithms.ValueIteration;
+import simple.experiment.data.DataGenerator;
+import simple.experiment.full.ResultSink;
+import simple.experiment.full.StreamingStats;
+import simple.experiment.model_based.MDPEstimator;
+import simple.sample.RandomMDP;
+import simple.sample.RandomStreams;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs an ExperimentGrid on a work-stealing pool. Every (size, repetition) pair is a task that samples its dataset
+ * and estimates it once, then forks one task per axis value sharing that estimate; on the gamma axis the value
+ * iteration solves of all gammas also share one warm-started GammaSweep. The reference solution of the true MDP is
+ * computed once for the whole grid. Scores go to one ResultSink per evaluator, so any sweep keeps every core busy
+ * and only holds summaries unless raw scores are asked for.
+ *
+ * Dataset (n, i) draws from RandomStreams.stream(n, i), so a seeded grid gives the same datasets whatever the
+ * scheduling, and the same datasets as GammaExperimentRunner.runFigure3 with the same seed.
+ */
+public class ExperimentEngine {
+
+    private final ExperimentGrid grid;
+
+    /**
+     * Reference solutions of the true MDP, shared by all the cells.
+     */
+    private final SolutionCache solutions = new SolutionCache();
+
+    /**
+     * Scores of each evaluator, by (size, axis value).
+     */
+    private final Map<ExperimentGrid.Evaluator, ResultSink<Integer, Double>> sinks;
+
+    /**
+     * Number of datasets done, for progress reports.
+     */
+    private final AtomicInteger done = new AtomicInteger();
+
+    /**
+     * The true MDP, drawn when the grid runs.
+     */
+    private MDP mdp;
+
+    public ExperimentEngine(ExperimentGrid grid) {
+        this.grid = grid;
+        this.sinks = new EnumMap<>(ExperimentGrid.Evaluator.class);
+        for (ExperimentGrid.Evaluator evaluator : grid.getEvaluators()) {
+            this.sinks.put(evaluator, new ResultSink<>(grid.isRaw()));
+        }
+    }
+
+    /**
+     * Runs every cell of the grid.
+     *
+     * @throws MDPException
+     */
+    public void run() throws MDPException {
+        if (this.grid.getSeed() != null) {
+            RandomStreams.setSeed(this.grid.getSeed());
+        }
+        this.mdp = RandomMDP.sample();
+        if (this.sinks.containsKey(ExperimentGrid.Evaluator.LOSS)) {
+            this.solutions.getOptimal(this.mdp, this.grid.getEvalGamma());
+        }
+
+        List<DatasetTask> tasks = new ArrayList<>();
+        for (Integer n : this.grid.getSizes()) {
+            for (int i = 0; i < this.grid.getRepetitions(); i++) {
+                tasks.add(new DatasetTask(n, i));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(this.grid.getThreads());
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (IllegalStateException e) {
+            // Tasks wrap the checked exception, and the pool may wrap it once more.
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof MDPException) {
+                    throw (MDPException) cause;
+                }
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @param evaluator
+     * @return the scores of the evaluator, by (size, axis value).
+     */
+    public ResultSink<Integer, Double> getResults(ExperimentGrid.Evaluator evaluator) {
+        return this.sinks.get(evaluator);
+    }
+
+    /**
+     * Writes output_evaluator_summary.csv for each evaluator, and output_evaluator_results.csv with every score
+     * when the grid keeps raw scores.
+     *
+     * @throws IOException
+     */
+    public void write() throws IOException {
+        String axis = this.grid.getAxis().name().toLowerCase();
+        for (Map.Entry<ExperimentGrid.Evaluator, ResultSink<Integer, Double>> entry : this.sinks.entrySet()) {
+            String prefix = this.grid.getOutput() + "_" + entry.getKey().name().toLowerCase();
+            Table<Integer, Double, StreamingStats> summaries = entry.getValue().getStatistics();
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(prefix + "_summary.csv")))) {
+                bw.write("n," + axis + ",count,mean,std,min,p05,median,p95,max\n");
+                for (Integer n : this.grid.getSizes()) {
+                    for (Double value : this.grid.getValues()) {
+                        StreamingStats stats = summaries.get(n, value);
+                        bw.write(n + "," + value + "," + stats.getCount() + "," + stats.getMean() + ","
+                                + stats.getStandardDeviation() + "," + stats.getMin() + "," + stats.getQuantile(0.05) + ","
+                                + stats.getQuantile(0.5) + "," + stats.getQuantile(0.95) + "," + stats.getMax() + "\n");
+                    }
+                }
+            }
+            if (this.grid.isRaw()) {
+                Table<Integer, Double, List<Double>> results = entry.getValue().getResults();
+                try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(prefix + "_results.csv")))) {
+                    for (Integer n : this.grid.getSizes()) {
+                        for (Double value : this.grid.getValues()) {
+                            for (Double score : results.get(n, value)) {
+                                bw.write(n + "," + value + "," + score + "\n");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples and estimates dataset i of size n, then scores every axis value on it.
+     */
+    @SuppressWarnings("serial")
+    private class DatasetTask extends RecursiveAction {
+
+        private final int n;
+
+        private final int repetition;
+
+        DatasetTask(int n, int repetition) {
+            this.n = n;
+            this.repetition = repetition;
+        }
+
+        @Override
+        protected void compute() {
+            ExperimentGrid grid = ExperimentEngine.this.grid;
+            MDP mdp = ExperimentEngine.this.mdp;
+            SplittableRandom previous = RandomStreams.setCurrent(RandomStreams.stream(this.n, this.repetition));
+            try {
+                TransitionCounts dataset = new TransitionCounts(mdp.getIndex());
+                if (grid.getData() == ExperimentGrid.Data.TRAJECTORIES) {
+                    DataGenerator.generateNTrajectories(grid.getLength(), this.n, mdp, dataset);
+                } else {
+                    DataGenerator.generateNSATrajectories(this.n, mdp, dataset);
+                }
+                MDPEstimator estimator = new MDPEstimator(mdp.getStates(), mdp.getActions(), dataset);
+                GammaSweep sweep = null;
+                if (grid.getAxis() == ExperimentGrid.Axis.GAMMA && grid.getSolver() == ExperimentGrid.Solver.VALUE_ITERATION) {
+                    sweep = new GammaSweep(estimator.getMdp(), grid.getValues());
+                    sweep.run();
+                }
+                List<CellTask> cells = new ArrayList<>();
+                for (int j = 0; j < grid.getValues().size(); j++) {
+                    cells.add(new CellTask(this, estimator, sweep, j));
+                }
+                invokeAll(cells);
+            } catch (MDPException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                RandomStreams.setCurrent(previous);
+            }
+            int count = ExperimentEngine.this.done.incrementAndGet();
+            System.err.println("Finished dataset " + count + " of " + grid.getSizes().size() * grid.getRepetitions());
+        }
+    }
+
+    /**
+     * Solves the estimate of a dataset at one axis value and scores the policy.
+     */
+    @SuppressWarnings("serial")
+    private class CellTask extends RecursiveAction {
+
+        private final DatasetTask dataset;
+
+        private final MDPEstimator estimator;
+
+        /**
+         * Solutions of every gamma, or null when the cell solves on its own.
+         */
+        private final GammaSweep sweep;
+
+        private final int index;
+
+        CellTask(DatasetTask dataset, MDPEstimator estimator, GammaSweep sweep, int index) {
+            this.dataset = dataset;
+            this.estimator = estimator;
+            this.sweep = sweep;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            ExperimentGrid grid = ExperimentEngine.this.grid;
+            // Tie-breaks of the solvers draw from a stream of the cell, whichever worker runs it.
+            SplittableRandom previous = RandomStreams.setCurrent(
+                    RandomStreams.stream(((long) this.dataset.n << 32) ^ this.dataset.repetition, this.index));
+            double value = grid.getValues().get(this.index);
+            try {
+                MDP model = grid.getAxis() == ExperimentGrid.Axis.EPSILON
+                        ? this.estimator.getMdp(value) : this.estimator.getMdp();
+                Map<State, Action> policy = this.solve(model, value);
+                Map<State, Double> trueValues = null;
+                for (Map.Entry<ExperimentGrid.Evaluator, ResultSink<Integer, Double>> entry : ExperimentEngine.this.sinks.entrySet()) {
+                    double score;
+                    if (entry.getKey() == ExperimentGrid.Evaluator.TRAIN) {
+                        score = -mean(evaluate(model, policy));
+                    } else {
+                        if (trueValues == null) {
+                            trueValues = evaluate(ExperimentEngine.this.mdp, policy);
+                        }
+                        score = -mean(trueValues);
+                        if (entry.getKey() == ExperimentGrid.Evaluator.LOSS) {
+                            score += mean(ExperimentEngine.this.solutions.getOptimal(ExperimentEngine.this.mdp,
+                                    grid.getEvalGamma()).getValueFunction());
+                        }
+                    }
+                    entry.getValue().record(this.dataset.n, value, this.dataset.repetition, score);
+                }
+            } catch (MDPException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                RandomStreams.setCurrent(previous);
+            }
+        }
+
+        private Map<State, Action> solve(MDP model, double value) throws MDPException {
+            ExperimentGrid grid = ExperimentEngine.this.grid;
+            if (grid.getAxis() == ExperimentGrid.Axis.TEMPERATURE) {
+                ValueIteration vi = new ValueIteration(model, grid.getGamma(), value);
+                vi.runBoltzmannQ();
+                vi.computePolicy();
+                return vi.getPolicy();
+            }
+            if (this.sweep != null) {
+                return this.sweep.getSolution(value).getPolicy();
+            }
+            double gamma = grid.getAxis() == ExperimentGrid.Axis.GAMMA ? value : grid.getGamma();
+            if (grid.getSolver() == ExperimentGrid.Solver.POLICY_ITERATION) {
+                PolicyIteration pi = new PolicyIteration(model, gamma);
+                pi.run();
+                return pi.getPolicy();
+            }
+            ValueIteration vi = new ValueIteration(model, gamma);
+            vi.run();
+            vi.computePolicy();
+            return vi.getPolicy();
+        }
+    }
+
+    /**
+     * @param model
+     * @param policy
+     * @return the exact value of the policy in the model, at the evaluation gamma.
+     */
+    private Map<State, Double> evaluate(MDP model, Map<State, Action> policy) {
+        PolicyEvaluation pe = new PolicyEvaluation(model, this.grid.getEvalGamma(), policy);
+        pe.setMode(PolicyEvaluation.Mode.DIRECT);
+        pe.run();
+        return pe.getValueFunction();
+    }
+
+    private static double mean(Map<State, Double> values) {
+        double sum = 0.0;
+        for (double v : values.values()) {
+            sum += v;
+        }
+        return sum / values.size();
+    }
+
+    public static void main(String[] args) throws MDPException, IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ExperimentEngine <grid.properties>");
+            System.exit(1);
+        }
+        long startTime = System.currentTimeMillis();
+        ExperimentEngine engine = new ExperimentEngine(ExperimentGrid.load(new File(args[0])));
+        engine.run();
+        engine.write();
+        System.out.println(System.currentTimeMillis() - startTime);
+    }
+}
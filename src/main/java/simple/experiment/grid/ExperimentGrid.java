@@ -0,0 +1,257 @@
+package simple.experiment.grid;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Declarative description of an experiment sweep: which MDP to draw, which datasets to sample from it,
+ * which hyperparameter to sweep, how to solve each estimated model and how to score the solution.
+ * A grid is read from a properties file, see scripts/figure3_gamma.properties for an example. Keys:
+ *
+ * <ul>
+ * <li>mdp: random, for simple.sample.RandomMDP.</li>
+ * <li>data: trajectories or state_action, for DataGenerator.generateNTrajectories or generateNSATrajectories.</li>
+ * <li>data.length: length of each trajectory, 10 by default.</li>
+ * <li>data.sizes: comma-separated numbers of trajectories, or of samples of each state-action pair.</li>
+ * <li>repetitions: datasets drawn for each size.</li>
+ * <li>axis: gamma, epsilon or temperature.</li>
+ * <li>axis.values: comma-separated values of the axis.</li>
+ * <li>solver: value_iteration or policy_iteration.</li>
+ * <li>gamma: planning gamma when the axis is not gamma, 0.99 by default.</li>
+ * <li>evaluators: comma-separated loss, train or test.</li>
+ * <li>eval.gamma: gamma the policies are evaluated at, 0.99 by default.</li>
+ * <li>output: prefix of the output files.</li>
+ * <li>raw: whether to also write every score, not only the summaries.</li>
+ * <li>threads: size of the pool, the number of processors by default.</li>
+ * <li>seed: seed of the random streams, RandomStreams' own by default.</li>
+ * </ul>
+ */
+public class ExperimentGrid {
+
+    /**
+     * Source of the datasets.
+     */
+    public enum Data {
+        /**
+         * n trajectories of length data.length from random start states.
+         */
+        TRAJECTORIES,
+        /**
+         * n samples of every state-action pair.
+         */
+        STATE_ACTION
+    }
+
+    /**
+     * Hyperparameter swept by the grid.
+     */
+    public enum Axis {
+        /**
+         * Planning gamma.
+         */
+        GAMMA,
+        /**
+         * Weight of the action-mean model in the estimate, see MDPEstimator.
+         */
+        EPSILON,
+        /**
+         * Inverse temperature beta of Boltzmann Q iteration, see ValueIteration.runBoltzmannQ().
+         */
+        TEMPERATURE
+    }
+
+    /**
+     * Algorithm solving each estimated model. Ignored on the temperature axis, which always runs Boltzmann Q iteration.
+     */
+    public enum Solver {
+        VALUE_ITERATION,
+        POLICY_ITERATION
+    }
+
+    /**
+     * Score of a policy, averaged over states.
+     */
+    public enum Evaluator {
+        /**
+         * Optimal value of the true MDP minus the value of the policy in it.
+         */
+        LOSS,
+        /**
+         * Negated value of the policy in the estimated MDP.
+         */
+        TRAIN,
+        /**
+         * Negated value of the policy in the true MDP.
+         */
+        TEST
+    }
+
+    private final String mdp;
+
+    private final Data data;
+
+    private final int length;
+
+    private final List<Integer> sizes;
+
+    private final int repetitions;
+
+    private final Axis axis;
+
+    private final List<Double> values;
+
+    private final Solver solver;
+
+    private final double gamma;
+
+    private final List<Evaluator> evaluators;
+
+    private final double evalGamma;
+
+    private final String output;
+
+    private final boolean raw;
+
+    private final int threads;
+
+    private final Long seed;
+
+    /**
+     * Constructor. See the class comment for the keys.
+     *
+     * @param properties
+     */
+    public ExperimentGrid(Properties properties) {
+        this.mdp = get(properties, "mdp", "random");
+        if (!this.mdp.equals("random")) {
+            throw new IllegalArgumentException("Unknown mdp: " + this.mdp);
+        }
+        this.data = Data.valueOf(get(properties, "data", "trajectories").toUpperCase(Locale.ROOT));
+        this.length = Integer.parseInt(get(properties, "data.length", "10"));
+        this.sizes = new ArrayList<>();
+        for (String size : require(properties, "data.sizes").split(",")) {
+            this.sizes.add(Integer.parseInt(size.trim()));
+        }
+        this.repetitions = Integer.parseInt(get(properties, "repetitions", "1"));
+        this.axis = Axis.valueOf(require(properties, "axis").toUpperCase(Locale.ROOT));
+        this.values = new ArrayList<>();
+        for (String value : require(properties, "axis.values").split(",")) {
+            this.values.add(Double.parseDouble(value.trim()));
+        }
+        this.solver = Solver.valueOf(get(properties, "solver", "value_iteration").toUpperCase(Locale.ROOT));
+        this.gamma = Double.parseDouble(get(properties, "gamma", "0.99"));
+        this.evaluators = new ArrayList<>();
+        for (String evaluator : get(properties, "evaluators", "loss").split(",")) {
+            this.evaluators.add(Evaluator.valueOf(evaluator.trim().toUpperCase(Locale.ROOT)));
+        }
+        this.evalGamma = Double.parseDouble(get(properties, "eval.gamma", "0.99"));
+        this.output = require(properties, "output");
+        this.raw = Boolean.parseBoolean(get(properties, "raw", "false"));
+        this.threads = Integer.parseInt(get(properties, "threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        String seed = properties.getProperty("seed");
+        this.seed = seed == null ? null : Long.parseLong(seed.trim());
+        if (this.repetitions < 1 || this.threads < 1 || this.length < 1) {
+            throw new IllegalArgumentException("repetitions, threads and data.length must be positive");
+        }
+    }
+
+    /**
+     * Reads a grid from a properties file.
+     *
+     * @param file
+     * @return the grid.
+     * @throws IOException
+     */
+    public static ExperimentGrid load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return new ExperimentGrid(properties);
+    }
+
+    private static String get(Properties properties, String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue).trim();
+    }
+
+    private static String require(Properties properties, String key) {
+        String ret = properties.getProperty(key);
+        if (ret == null) {
+            throw new IllegalArgumentException("Missing key: " + key);
+        }
+        return ret.trim();
+    }
+
+    public String getMdp() {
+        return this.mdp;
+    }
+
+    public Data getData() {
+        return this.data;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    public List<Integer> getSizes() {
+        return Collections.unmodifiableList(this.sizes);
+    }
+
+    public int getRepetitions() {
+        return this.repetitions;
+    }
+
+    public Axis getAxis() {
+        return this.axis;
+    }
+
+    public List<Double> getValues() {
+        return Collections.unmodifiableList(this.values);
+    }
+
+    public Solver getSolver() {
+        return this.solver;
+    }
+
+    public double getGamma() {
+        return this.gamma;
+    }
+
+    public List<Evaluator> getEvaluators() {
+        return Collections.unmodifiableList(this.evaluators);
+    }
+
+    public double getEvalGamma() {
+        return this.evalGamma;
+    }
+
+    public String getOutput() {
+        return this.output;
+    }
+
+    public boolean isRaw() {
+        return this.raw;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the seed of the random streams, or null to keep the current one.
+     */
+    public Long getSeed() {
+        return this.seed;
+    }
+}
@@ -0,0 +1,249 @@
+package simple.experiment.model_based;
+
+import simple.MDP.Action;
+import simple.MDP.CompiledMDP;
+import simple.MDP.IndexedMDP;
+import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
+import simple.MDP.RegularizedMDP;
+import simple.MDP.State;
+import simple.MDP.Trajectory;
+import simple.MDP.TransitionCounts;
+import simple.MDP.exceptions.MDPException;
+import simple.algorithms.ArrayValueIteration;
+import simple.algorithms.BackupKernel;
+import simple.experiment.data.DataGenerator;
+import simple.sample.RandomMDP;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maximum likelihood estimate of an MDP that is updated as data streams in, so that learning curves over growing
+ * datasets come from a single stream instead of independent re-estimations. Transitions are counted in O(1) each,
+ * the estimated MDP is rebuilt on demand, and planning is warm-started from the values of the previous plan.
+ *
+ * When the counts are dense, a snapshot re-estimates only the states whose counts changed since the last one, in
+ * O(|A| * |S|) each, but then copies the whole estimate so that the snapshot is not affected by later data: every
+ * snapshot costs O(|S|^2 * |A|) time and memory whatever the number of changed states. When the counts are sparse,
+ * every snapshot re-estimates the whole model with MDPEstimator, in time linear in the number of observed
+ * transitions.
+ */
+public class IncrementalMDPEstimator {
+
+    /**
+     * An simple.MDP is composed of States.
+     */
+    private final Set<State> states;
+
+    /**
+     * In a State we can take an Action.
+     */
+    private final Set<Action> actions;
+
+    /**
+     * Weight of the action-mean model in the estimate.
+     */
+    private final double epsilon;
+
+    /**
+     * Counts of all the transitions seen so far.
+     */
+    private final TransitionCounts counts;
+
+    /**
+     * States with new transitions since the last snapshot.
+     */
+    private final BitSet dirty;
+
+    /**
+     * Current dense estimate of the transitions, by (s * |A| + a) * |S| + s'. Null when the counts are sparse.
+     */
+    private final double[] transitions;
+
+    /**
+     * Current dense estimate of the rewards, same layout as transitions.
+     */
+    private final double[] rewards;
+
+    /**
+     * Current dense estimate of the action-mean transitions, same layout as transitions.
+     */
+    private final double[] mean;
+
+    /**
+     * Last snapshot, or null if data came in since.
+     */
+    private MDP snapshot;
+
+    /**
+     * Gamma of the last plan.
+     */
+    private double planGamma = Double.NaN;
+
+    /**
+     * Values of the last plan, by state id.
+     */
+    private double[] planValues;
+
+    public IncrementalMDPEstimator(Set<State> states, Set<Action> actions) {
+        this(0.0, states, actions);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param epsilon - weight of the action-mean model, as in MDPEstimator.
+     * @param states
+     * @param actions
+     */
+    public IncrementalMDPEstimator(double epsilon, Set<State> states, Set<Action> actions) {
+        this.states = states;
+        this.actions = actions;
+        this.epsilon = epsilon;
+        this.counts = new TransitionCounts(new MDPIndex(states, actions));
+        int numStates = states.size();
+        this.dirty = new BitSet(numStates);
+        this.dirty.set(0, numStates);
+        if (this.counts.isSparse()) {
+            this.transitions = null;
+            this.rewards = null;
+            this.mean = null;
+        } else {
+            this.transitions = new double[numStates * actions.size() * numStates];
+            this.rewards = new double[this.transitions.length];
+            this.mean = new double[this.transitions.length];
+        }
+    }
+
+    /**
+     * Records one transition.
+     *
+     * @param s
+     * @param a
+     * @param r
+     * @param sprime
+     */
+    public void add(State s, Action a, double r, State sprime) {
+        MDPIndex index = this.counts.getIndex();
+        int si = index.getStateIndex(s);
+        this.counts.add(si, index.getActionIndex(a), r, index.getStateIndex(sprime));
+        this.dirty.set(si);
+        this.snapshot = null;
+    }
+
+    /**
+     * Records every step of a trajectory.
+     *
+     * @param trajectory
+     */
+    public void add(Trajectory trajectory) {
+        List<State> visited = trajectory.getStates();
+        for (int i = 0; i < trajectory.getLength(); i++) {
+            this.add(visited.get(i), trajectory.getActions().get(i), trajectory.getRewards().get(i), visited.get(i + 1));
+        }
+    }
+
+    public void addAll(List<Trajectory> data) {
+        for (Trajectory t : data) {
+            this.add(t);
+        }
+    }
+
+    /**
+     * Returns the estimate of all the data seen so far. The snapshot is not affected by later data.
+     *
+     * @return the estimated MDP.
+     * @throws MDPException
+     */
+    public MDP getMdp() throws MDPException {
+        if (this.snapshot == null) {
+            this.snapshot = new MDP(this.states, this.actions, this.estimate());
+        }
+        return this.snapshot;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the estimated model of all the data seen so far.
+     * @throws MDPException
+     */
+    public IndexedMDP getModel() throws MDPException {
+        return this.getMdp().compile();
+    }
+
+    /**
+     * Re-estimates the dirty states and copies the estimate into a new model, or, for sparse counts,
+     * re-estimates every state.
+     */
+    private IndexedMDP estimate() throws MDPException {
+        if (this.transitions == null) {
+            this.dirty.clear();
+            return new MDPEstimator(this.epsilon, this.states, this.actions, this.counts).getModel();
+        }
+        for (int s = this.dirty.nextSetBit(0); s >= 0; s = this.dirty.nextSetBit(s + 1)) {
+            MDPEstimator.estimateDenseState(this.counts, s, this.transitions, this.rewards, this.mean);
+        }
+        this.dirty.clear();
+        IndexedMDP estimate = new CompiledMDP(this.counts.getIndex(), this.transitions.clone(), this.rewards.clone());
+        return this.epsilon == 0.0 ? estimate : new RegularizedMDP(estimate, this.mean.clone(), this.epsilon);
+    }
+
+    /**
+     * Plans on the current estimate with value iteration. When the last plan used the same gamma,
+     * the sweeps start from its values, so only the effect of the new data has to propagate.
+     *
+     * @param gamma
+     * @return the solver, with its policy computed.
+     * @throws MDPException
+     */
+    public ArrayValueIteration plan(double gamma) throws MDPException {
+        ArrayValueIteration ret = new ArrayValueIteration(this.getModel(), gamma, BackupKernel.MAX,
+                ArrayValueIteration.UpdateOrder.GAUSS_SEIDEL);
+        if (gamma == this.planGamma) {
+            ret.setValues(this.planValues);
+        }
+        ret.run();
+        ret.computePolicy();
+        this.planGamma = gamma;
+        double[] values = new double[this.states.size()];
+        for (int s = 0; s < values.length; s++) {
+            values[s] = ret.getValue(s);
+        }
+        this.planValues = values;
+        return ret;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the number of states whose estimate is stale.
+     */
+    public int getNumDirtyStates() {
+        return this.dirty.cardinality();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return the transitions seen so far.
+     */
+    public TransitionCounts getCounts() {
+        return this.counts;
+    }
+
+    public static void main(String[] args) throws MDPException {
+        MDP randomMDP = RandomMDP.sample();
+        IncrementalMDPEstimator estimator = new IncrementalMDPEstimator(randomMDP.getStates(), randomMDP.getActions());
+        int seen = 0;
+        for (int n : new int[]{5, 10, 20, 50}) {
+            // Top the stream up to n samples of every state-action pair.
+            estimator.addAll(DataGenerator.generateNSATrajectories(n - seen, randomMDP));
+            seen = n;
+            ArrayValueIteration plan = estimator.plan(0.9);
+            System.out.println("n = " + n + ": " + plan.getIterations() + " sweeps, policy " + plan.getPolicy());
+        }
+    }
+}
@@ -1,23 +1,29 @@
 package simple.experiment.model_based;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import simple.MDP.Action;
+import simple.MDP.CompiledMDP;
+import simple.MDP.IndexedMDP;
 import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
+import simple.MDP.RegularizedMDP;
+import simple.MDP.SparseMDP;
 import simple.MDP.State;
 import simple.MDP.Trajectory;
+import simple.MDP.TrajectoryDataset;
+import simple.MDP.TransitionCounts;
 import simple.MDP.exceptions.MDPException;
 import simple.experiment.data.DataGenerator;
 import simple.sample.RandomMDP;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
  * Class for producing an MDP where the model (transitions and rewards) is constructed from maximum likelihood estimates
- * of observed data
+ * of observed data. The estimate is computed in one pass over the transition counts and written straight into an
+ * array-backed model: dense when the counts are dense, compressed-sparse-row otherwise. The estimate and its mean
+ * over actions are kept, so models regularized with any epsilon are views that cost no re-estimation.
  * Created by dilip on 11/7/16.
  */
 public class MDPEstimator {
@@ -33,20 +39,20 @@ public class MDPEstimator {
     private final Set<Action> actions;
 
     /**
-     * There is a probability of transition from one state to another by taking an action.
+     * Maximum likelihood estimate of the transitions, and the rewards, indexed like the counts they come from.
+     * Rows have an entry for every successor of the action-mean model, so both share one layout.
      */
-    private final Table<State, Action, Map<State, Double>> transitionsEst;
-
-    private final Table<State, Action, Map<State, Double>> transitionsMean;
-
-    private final Table<State, Action, Map<State, Double>> transitionsReg;
-
+    private IndexedMDP estimate;
 
+    /**
+     * Action-mean model, one probability per entry of estimate.
+     */
+    private double[] mean;
 
     /**
-     * Transition from one state to another yields a reward.
+     * The estimated transitions and rewards, regularized with the epsilon of the constructor.
      */
-    private final Table<State, Action, Map<State, Double>> rewards;
+    private final IndexedMDP model;
 
     /**
      * The resulting MDP from computing ML estimates over transitions and rewards
@@ -54,92 +60,263 @@ public class MDPEstimator {
     private final MDP mdp;
 
     public MDPEstimator(Set<State> states, Set<Action> actions, List<Trajectory> data) throws MDPException {
-        this.states = states;
-        this.actions = actions;
-        this.transitionsEst = HashBasedTable.create();
-        this.transitionsMean = HashBasedTable.create();
-        this.transitionsReg = HashBasedTable.create();
-        this.rewards = HashBasedTable.create();
-        this.estimateModel(data, 0.0);
-        this.mdp = new MDP(this.states, this.actions, this.transitionsEst, this.rewards);
+        this(states, actions, count(states, actions, data, false));
     }
 
     public MDPEstimator(double epsilon, Set<State> states, Set<Action> actions, List<Trajectory> data) throws MDPException {
+        this(epsilon, states, actions, count(states, actions, data, false));
+    }
+
+    /**
+     * Constructor. Estimates the model from a columnar dataset over the given states and actions.
+     *
+     * @param states
+     * @param actions
+     * @param data
+     * @throws MDPException
+     */
+    public MDPEstimator(Set<State> states, Set<Action> actions, TrajectoryDataset data) throws MDPException {
+        this(0.0, states, actions, data.getCounts());
+    }
+
+    public MDPEstimator(double epsilon, Set<State> states, Set<Action> actions, TrajectoryDataset data) throws MDPException {
+        this(epsilon, states, actions, data.getCounts());
+    }
+
+    /**
+     * Constructor. Estimates the model from counts accumulated over the given states and actions.
+     *
+     * @param states
+     * @param actions
+     * @param counts
+     * @throws MDPException
+     */
+    public MDPEstimator(Set<State> states, Set<Action> actions, TransitionCounts counts) throws MDPException {
+        this(0.0, states, actions, counts);
+    }
+
+    /**
+     * Constructor. Estimates the model from counts accumulated over the given states and actions, with
+     * transitions regularized towards their mean over actions.
+     *
+     * @param epsilon
+     * @param states
+     * @param actions
+     * @param counts
+     * @throws MDPException
+     */
+    public MDPEstimator(double epsilon, Set<State> states, Set<Action> actions, TransitionCounts counts) throws MDPException {
         this.states = states;
         this.actions = actions;
-        this.transitionsEst = HashBasedTable.create();
-        this.transitionsMean = HashBasedTable.create();
-        this.transitionsReg = HashBasedTable.create();
-        this.rewards = HashBasedTable.create();
-        this.estimateModel(data, epsilon);
-        this.mdp = new MDP(this.states, this.actions, this.transitionsReg, this.rewards);
+        if (counts.isSparse()) {
+            this.estimateSparse(counts);
+        } else {
+            this.estimateDense(counts);
+        }
+        this.model = this.getModel(epsilon);
+        this.mdp = new MDP(this.states, this.actions, this.model);
     }
 
-    private void estimateModel(List<Trajectory> data, double epsilon){
-        for(State s : this.states){
-            for(Action a : this.actions){
-                Map<State, Double> rewardMap = new HashMap<>();
-                Map<State, Double> transitionDataMap = new HashMap<>();
-                int observedSA = data.stream().mapToInt(t -> t.getStateActionCounter().get(s, a)).sum();
-                if(observedSA > 0){
-                    double rewardSum = data.stream().mapToDouble(t -> t.getStateActionReward().get(s, a)).sum();
-                    for (State sprime : this.states) {
-                        int observedSASP = data.stream().mapToInt(t -> t.getStateActionTransition().get(s, a).get(sprime)).sum();
-                        transitionDataMap.put(sprime, ((double) observedSASP) / observedSA);
-                        rewardMap.put(sprime, rewardSum / observedSA);
-                    }
-                }
-                else {
-                    for(State sprime : this.states){
-                        rewardMap.put(sprime, 0.5);
-                        transitionDataMap.put(sprime, 1.0 / this.states.size());
-                    }
-                }
-                this.rewards.put(s, a, rewardMap);
-                this.transitionsEst.put(s, a, transitionDataMap);
+    /**
+     * Counts the transitions of a dataset in a single pass. In parallel, each worker counts part of the
+     * trajectories into its own accumulator and the partial counts are merged at the end.
+     *
+     * @param states
+     * @param actions
+     * @param data
+     * @param parallel
+     * @return the transition counts of the dataset.
+     */
+    public static TransitionCounts count(Set<State> states, Set<Action> actions, List<Trajectory> data, boolean parallel) {
+        MDPIndex index = new MDPIndex(states, actions);
+        if (parallel) {
+            return data.parallelStream().collect(() -> new TransitionCounts(index), (c, t) -> t.addTo(c), TransitionCounts::addAll);
+        }
+        TransitionCounts ret = new TransitionCounts(index);
+        for(Trajectory t : data){
+            t.addTo(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Computes P_est and P_mean into dense arrays, where P_est is the maximum likelihood estimate and P_mean its
+     * average over actions. Unobserved pairs get uniform transitions and a reward of 0.5.
+     */
+    private void estimateDense(TransitionCounts counts) {
+        MDPIndex index = counts.getIndex();
+        int numStates = index.getNumStates();
+        double[] transitions = new double[numStates * index.getNumActions() * numStates];
+        double[] rewards = new double[transitions.length];
+        this.mean = new double[transitions.length];
+        for(int s = 0; s < numStates; s++){
+            estimateDenseState(counts, s, transitions, rewards, this.mean);
+        }
+        this.estimate = new CompiledMDP(index, transitions, rewards);
+    }
+
+    /**
+     * Overwrites the rows of state s in dense arrays with P_est, its rewards and P_mean.
+     *
+     * @param counts
+     * @param s
+     * @param transitions - dense transitions, by (s * |A| + a) * |S| + s'.
+     * @param rewards - dense rewards, same layout.
+     * @param mean - dense action-mean transitions, same layout.
+     */
+    static void estimateDenseState(TransitionCounts counts, int s, double[] transitions, double[] rewards, double[] mean) {
+        int numStates = counts.getIndex().getNumStates();
+        int numActions = counts.getIndex().getNumActions();
+        int first = s * numActions * numStates;
+        Arrays.fill(mean, first, first + numStates, 0.0);
+        for(int a = 0; a < numActions; a++){
+            int offset = (s * numActions + a) * numStates;
+            int observedSA = counts.getCount(s, a);
+            if(observedSA > 0){
+                Arrays.fill(transitions, offset, offset + numStates, 0.0);
+                counts.forEachSuccessor(s, a, (sprime, count) -> transitions[offset + sprime] = ((double) count) / observedSA);
+                Arrays.fill(rewards, offset, offset + numStates, counts.getRewardSum(s, a) / observedSA);
+            }
+            else {
+                Arrays.fill(transitions, offset, offset + numStates, 1.0 / numStates);
+                Arrays.fill(rewards, offset, offset + numStates, 0.5);
             }
+            for(int sprime = 0; sprime < numStates; sprime++){
+                mean[first + sprime] += transitions[offset + sprime];
+            }
+        }
+        for(int sprime = 0; sprime < numStates; sprime++){
+            mean[first + sprime] /= numActions;
+        }
+        for(int a = 1; a < numActions; a++){
+            System.arraycopy(mean, first, mean, first + a * numStates, numStates);
         }
+    }
 
-        for(State s : this.states){
-            for(Action a : this.actions){
-                for(State sprime : this.states){
-                    if(this.transitionsMean.get(s, a) == null){
-                        this.transitionsMean.put(s, a, new HashMap<>());
-                    }
-                    double mean = 0.0;
-                    for(Action aprime : this.actions){
-                        mean += this.transitionsEst.get(s, aprime).get(sprime);
+    /**
+     * Same estimate as estimateDense(), stored in compressed-sparse-row form. Every row of a state has an entry
+     * for every successor observed from it under any action.
+     */
+    private void estimateSparse(TransitionCounts counts) {
+        MDPIndex index = counts.getIndex();
+        int numStates = index.getNumStates();
+        int numActions = index.getNumActions();
+        int[] rowOffsets = new int[numStates * numActions + 1];
+        int capacity = 16;
+        int[] successors = new int[capacity];
+        double[] probabilities = new double[capacity];
+        double[] rewards = new double[capacity];
+        double[] means = new double[capacity];
+        int k = 0;
+        // Per-state scratch space: dense buffers over successors, reset after each use.
+        double[] stateMean = new double[numStates];
+        double[] rowEstimate = new double[numStates];
+        boolean[] inSupport = new boolean[numStates];
+        int[] support = new int[numStates];
+        for(int s = 0; s < numStates; s++){
+            int[] size = {0};
+            boolean uniform = false;
+            for(int a = 0; a < numActions; a++){
+                int observedSA = counts.getCount(s, a);
+                if(observedSA == 0){
+                    uniform = true;
+                    for(int sprime = 0; sprime < numStates; sprime++){
+                        stateMean[sprime] += 1.0 / numStates;
                     }
-                    this.transitionsMean.get(s, a).put(sprime, mean);
                 }
+                counts.forEachSuccessor(s, a, (sprime, count) -> {
+                    stateMean[sprime] += ((double) count) / observedSA;
+                    if(!inSupport[sprime]){
+                        inSupport[sprime] = true;
+                        support[size[0]++] = sprime;
+                    }
+                });
             }
-        }
-
-        for(State s : this.states){
-            for(Action a : this.actions){
-//                double norm = this.transitionsMean.get(s, a).values().stream().mapToDouble(i -> i).sum();
-                double norm = this.actions.size();
-                for(State sprime : this.states){
-                    this.transitionsMean.get(s, a).put(sprime, this.transitionsMean.get(s, a).get(sprime) / norm);
+            int supportSize = uniform ? numStates : size[0];
+            if(uniform){
+                for(int sprime = 0; sprime < numStates; sprime++){
+                    support[sprime] = sprime;
                 }
             }
-        }
-
-        for(State s : this.states){
-            for(Action a : this.actions){
-                Map<State, Double> transitionMap = new HashMap<>();
-                for(State sprime : this.states){
-                    transitionMap.put(sprime, (1 - epsilon) * this.transitionsEst.get(s, a).get(sprime) + epsilon * this.transitionsMean.get(s, a).get(sprime));
+            else {
+                Arrays.sort(support, 0, supportSize);
+            }
+            for(int j = 0; j < supportSize; j++){
+                stateMean[support[j]] /= numActions;
+            }
+            if(k + numActions * supportSize > capacity){
+                capacity = Math.max(2 * capacity, k + numActions * supportSize);
+                successors = Arrays.copyOf(successors, capacity);
+                probabilities = Arrays.copyOf(probabilities, capacity);
+                rewards = Arrays.copyOf(rewards, capacity);
+                means = Arrays.copyOf(means, capacity);
+            }
+            for(int a = 0; a < numActions; a++){
+                int observedSA = counts.getCount(s, a);
+                double reward;
+                if(observedSA > 0){
+                    reward = counts.getRewardSum(s, a) / observedSA;
+                    counts.forEachSuccessor(s, a, (sprime, count) -> rowEstimate[sprime] = ((double) count) / observedSA);
+                }
+                else {
+                    reward = 0.5;
+                    Arrays.fill(rowEstimate, 1.0 / numStates);
+                }
+                rowOffsets[s * numActions + a] = k;
+                for(int j = 0; j < supportSize; j++){
+                    int sprime = support[j];
+                    successors[k] = sprime;
+                    probabilities[k] = rowEstimate[sprime];
+                    rewards[k] = reward;
+                    means[k] = stateMean[sprime];
+                    rowEstimate[sprime] = 0.0;
+                    k++;
                 }
-                this.transitionsReg.put(s, a, transitionMap);
+            }
+            for(int j = 0; j < supportSize; j++){
+                stateMean[support[j]] = 0.0;
+                inSupport[support[j]] = false;
             }
         }
+        rowOffsets[rowOffsets.length - 1] = k;
+        this.estimate = new SparseMDP(index, rowOffsets, Arrays.copyOf(successors, k), Arrays.copyOf(probabilities, k),
+                Arrays.copyOf(rewards, k));
+        this.mean = Arrays.copyOf(means, k);
     }
 
     public MDP getMdp() {
         return this.mdp;
     }
 
+    /**
+     * Getter.
+     *
+     * @return the estimated model, which is also the compiled model of getMdp().
+     */
+    public IndexedMDP getModel() {
+        return this.model;
+    }
+
+    /**
+     * Returns (1 - epsilon) * P_est + epsilon * P_mean as a view over the estimate computed by the constructor,
+     * so that a sweep over epsilons estimates once and only blends per epsilon.
+     *
+     * @param epsilon
+     * @return the regularized model.
+     */
+    public IndexedMDP getModel(double epsilon) {
+        return epsilon == 0.0 ? this.estimate : new RegularizedMDP(this.estimate, this.mean, epsilon);
+    }
+
+    /**
+     * @param epsilon
+     * @return an MDP backed by getModel(epsilon).
+     * @throws MDPException
+     */
+    public MDP getMdp(double epsilon) throws MDPException {
+        return new MDP(this.states, this.actions, this.getModel(epsilon));
+    }
+
     public static void main(String[] args) throws MDPException {
         MDP randomMDP = RandomMDP.sample();
 
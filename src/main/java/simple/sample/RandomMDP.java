@@ -1,11 +1,9 @@
 package simple.sample;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import com.google.common.collect.HashBasedTable;
 
@@ -16,22 +14,34 @@ import simple.MDP.exceptions.MDPException;
 
 /**
  * This class implements functionality to simple.sample simple.MDP from distribution RandomMDP
- * as defined in Jiang et al.
+ * as defined in Jiang et al. Larger models of the same kind are built by RandomMDPGenerator.
  * 
  * @author Enrique Areyan Viqueira
  */
 public class RandomMDP {
 
 	public static MDP sample() throws MDPException {
+		return RandomMDP.sample(RandomStreams.current());
+	}
+
+	/**
+	 * Samples an simple.MDP drawing from the given stream. States and actions iterate in creation
+	 * order, so the same stream always gives the same MDP.
+	 *
+	 * @param rnd
+	 * @return the sampled simple.MDP.
+	 * @throws MDPException
+	 */
+	public static MDP sample(SplittableRandom rnd) throws MDPException {
 		// Create 10 states.
 		int numStates = 10;
 		int numActions = 2;
-		HashSet<State> states = new HashSet<State>();
+		LinkedHashSet<State> states = new LinkedHashSet<State>();
 		for (int i = 0; i < numStates; i++) {
 			states.add(new State("State #" + i));
 		}
 		// Create 10 actions.
-		HashSet<Action> actions = new HashSet<Action>();
+		LinkedHashSet<Action> actions = new LinkedHashSet<Action>();
 		for (int j = 0; j < numActions; j++) {
 			actions.add(new Action("Action #" + j));
 		}
@@ -40,7 +50,7 @@ public class RandomMDP {
 		for (State s : states) {
 			for (Action a : actions) {
 				HashMap<State, Double> t = new HashMap<State, Double>();
-				double[] dist = RandomMDP.createDistribution();
+				double[] dist = RandomMDP.createDistribution(rnd);
 				int k = 0;
 				for (State sTo : states) {
 					t.put(sTo, dist[k]);
@@ -49,13 +59,12 @@ public class RandomMDP {
 				transitions.put(s, a, t);
 			}
 		}
-		Random randomGenerator = new Random();
 		// Create the rewards.
 		HashBasedTable<State, Action, Map<State, Double>> rewards = HashBasedTable.create();
 		for (State sFrom : states) {
 			for (Action a : actions) {
 				HashMap<State, Double> r = new HashMap<>();
-				double reward = randomGenerator.nextDouble();
+				double reward = rnd.nextDouble();
 				for (State sTo : states) {
 					r.put(sTo, reward);
 				}
@@ -72,30 +81,58 @@ public class RandomMDP {
 	 * @return
 	 */
 	public static double[] createDistribution() {
-		Random randomGenerator = new Random();
-		double[] distribution = new double[10];
+		return RandomMDP.createDistribution(RandomStreams.current());
+	}
+
+	/**
+	 * Creates a vector of 10 numbers where only 5 are positive
+	 * and these 5 add to 1, drawing from the given stream.
+	 *
+	 * @param rnd
+	 * @return
+	 */
+	public static double[] createDistribution(SplittableRandom rnd) {
+		return RandomMDP.createDistribution(rnd, 10, 5);
+	}
+
+	/**
+	 * Creates a vector of size numbers where only nonZero are positive
+	 * and these add to 1. The position of the positive numbers is random.
+	 *
+	 * @param rnd
+	 * @param size
+	 * @param nonZero
+	 * @return
+	 */
+	public static double[] createDistribution(SplittableRandom rnd, int size, int nonZero) {
+		double[] distribution = new double[size];
 		double sum = 0.0;
-		// Create 5 random numbers between 0 and 1.
-		for (int i = 0; i < 5; i++) {
-			distribution[i] = randomGenerator.nextDouble();
+		// Create nonZero random numbers between 0 and 1.
+		for (int i = 0; i < nonZero; i++) {
+			distribution[i] = rnd.nextDouble();
 			sum += distribution[i];
 		}
-		// Normalize these 5 numbers.
-		for (int i = 0; i < 5; i++) {
+		// Normalize these numbers.
+		for (int i = 0; i < nonZero; i++) {
 			distribution[i] /= sum;
 		}
-		// Create a list of 10 indices, from 0 to 9/
-		ArrayList<Integer> indices = new ArrayList<Integer>();
-		for (int i = 0; i < 10; i++) {
-			indices.add(i);
+		// Create a list of size indices, from 0 to size - 1.
+		int[] indices = new int[size];
+		for (int i = 0; i < size; i++) {
+			indices[i] = i;
+		}
+		// Randomize the indices (Fisher-Yates).
+		for (int i = indices.length - 1; i > 0; i--) {
+			int j = rnd.nextInt(i + 1);
+			int tmp = indices[i];
+			indices[i] = indices[j];
+			indices[j] = tmp;
 		}
-		// Randomize the indices.
-		Collections.shuffle(indices);
 		
 		//Create the final distribution.
-		double[] finalDistribution = new double[10];
+		double[] finalDistribution = new double[size];
 		int k = 0;
-		for(Integer i : indices){
+		for(int i : indices){
 			finalDistribution[k] = distribution[i]; 
 			k++;
 		}
@@ -0,0 +1,335 @@
+package simple.sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import simple.MDP.Action;
+import simple.MDP.CompiledMDP;
+import simple.MDP.IndexedMDP;
+import simple.MDP.MDP;
+import simple.MDP.MDPIndex;
+import simple.MDP.OffHeapMDP;
+import simple.MDP.SparseMDP;
+import simple.MDP.State;
+import simple.MDP.exceptions.MDPException;
+
+/**
+ * Generates random MDPs of any size in the style of RandomMDP: every row (s, a) moves to
+ * branching distinct successors drawn uniformly, with probabilities given by normalized
+ * uniform numbers, and has one reward shared by all its successors unless rewards are drawn
+ * per transition.
+ *
+ * The model is written straight into the arrays of a CompiledMDP, a SparseMDP or an OffHeapMDP,
+ * by tasks over ranges of states run on a ForkJoinPool. State s draws from the stream
+ * RandomStreams.seeded(seed, s), so a seed gives the same model whatever the number of threads.
+ */
+public class RandomMDPGenerator {
+
+	/**
+	 * Representation of the generated model.
+	 */
+	public enum Layout {
+		/**
+		 * CompiledMDP, storing |S| successors per row.
+		 */
+		DENSE,
+		/**
+		 * SparseMDP, storing branching successors per row.
+		 */
+		SPARSE,
+		/**
+		 * OffHeapMDP, like SPARSE but outside the heap and with more than 2^31 entries allowed.
+		 */
+		OFF_HEAP
+	}
+
+	/**
+	 * Distribution of the rewards.
+	 */
+	@FunctionalInterface
+	public interface RewardDistribution {
+
+		/**
+		 * Uniform over [0, 1), as in RandomMDP.
+		 */
+		RewardDistribution UNIFORM = SplittableRandom::nextDouble;
+
+		double sample(SplittableRandom rnd);
+
+		static RewardDistribution uniform(double low, double high) {
+			return rnd -> low + (high - low) * rnd.nextDouble();
+		}
+
+		static RewardDistribution gaussian(double mean, double std) {
+			return rnd -> mean + std * RandomStreams.nextGaussian(rnd);
+		}
+	}
+
+	/**
+	 * Largest number of elements of a Java array.
+	 */
+	private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Minimum number of states generated by one task.
+	 */
+	private static final int MIN_CHUNK = 1024;
+
+	/**
+	 * Largest branching factor whose rows are searched and sorted by linear scans; larger rows
+	 * mark their successors in a bitmap of the states and are sorted with Arrays.sort().
+	 */
+	private static final int SMALL_BRANCHING = 32;
+
+	private final int numStates;
+
+	private final int numActions;
+
+	/**
+	 * Number of successors of each row.
+	 */
+	private final int branching;
+
+	private RewardDistribution rewards = RewardDistribution.UNIFORM;
+
+	/**
+	 * Whether each transition gets its own reward rather than each row.
+	 */
+	private boolean rewardPerTransition;
+
+	private Layout layout = Layout.SPARSE;
+
+	private long seed = RandomStreams.current().nextLong();
+
+	/**
+	 * Pool running the generation tasks.
+	 */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numStates
+	 * @param numActions
+	 * @param branching - number of successors of each (s, a), at most numStates.
+	 */
+	public RandomMDPGenerator(int numStates, int numActions, int branching) {
+		if (numStates < 1 || numActions < 1 || branching < 1 || branching > numStates) {
+			throw new IllegalArgumentException("Expected 1 <= branching <= |S| with |S|, |A| >= 1, got |S| = "
+					+ numStates + ", |A| = " + numActions + ", branching = " + branching);
+		}
+		this.numStates = numStates;
+		this.numActions = numActions;
+		this.branching = branching;
+	}
+
+	public void setRewards(RewardDistribution rewards) {
+		this.rewards = rewards;
+	}
+
+	public void setRewardPerTransition(boolean rewardPerTransition) {
+		this.rewardPerTransition = rewardPerTransition;
+	}
+
+	public void setLayout(Layout layout) {
+		this.layout = layout;
+	}
+
+	/**
+	 * Defaults to a number drawn from RandomStreams.current().
+	 *
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Generates a model. States and actions are named like those of RandomMDP.
+	 *
+	 * @return the model, in the chosen layout.
+	 */
+	public IndexedMDP generate() {
+		List<State> states = new ArrayList<>(this.numStates);
+		for (int i = 0; i < this.numStates; i++) {
+			states.add(new State("State #" + i));
+		}
+		List<Action> actions = new ArrayList<>(this.numActions);
+		for (int j = 0; j < this.numActions; j++) {
+			actions.add(new Action("Action #" + j));
+		}
+		MDPIndex index = new MDPIndex(states, actions);
+		long numRows = (long) this.numStates * this.numActions;
+		long rowWidth = this.layout == Layout.DENSE ? this.numStates : this.branching;
+		if (numRows > MAX_ARRAY || (this.layout != Layout.OFF_HEAP && numRows * rowWidth > MAX_ARRAY)) {
+			throw new IllegalArgumentException(numRows * rowWidth + " entries do not fit in the arrays of layout "
+					+ this.layout + ", use OFF_HEAP");
+		}
+		switch (this.layout) {
+			case DENSE: {
+				double[] transition = new double[(int) (numRows * rowWidth)];
+				double[] reward = new double[transition.length];
+				this.pool.invoke(new GenerateTask(0, this.numStates, (s, a, j, sTo, p, r) -> {
+					int k = (s * this.numActions + a) * this.numStates + sTo;
+					transition[k] = p;
+					reward[k] = r;
+				}));
+				return new CompiledMDP(index, transition, reward);
+			}
+			case SPARSE: {
+				int[] rowOffsets = new int[(int) numRows + 1];
+				for (int r = 0; r <= numRows; r++) {
+					rowOffsets[r] = r * this.branching;
+				}
+				int[] successors = new int[(int) (numRows * this.branching)];
+				double[] probabilities = new double[successors.length];
+				double[] reward = new double[successors.length];
+				this.pool.invoke(new GenerateTask(0, this.numStates, (s, a, j, sTo, p, r) -> {
+					int k = (s * this.numActions + a) * this.branching + j;
+					successors[k] = sTo;
+					probabilities[k] = p;
+					reward[k] = r;
+				}));
+				return new SparseMDP(index, rowOffsets, successors, probabilities, reward);
+			}
+			default: {
+				int[] rowLengths = new int[(int) numRows];
+				Arrays.fill(rowLengths, this.branching);
+				OffHeapMDP ret = new OffHeapMDP(index, rowLengths);
+				this.pool.invoke(new GenerateTask(0, this.numStates,
+						(s, a, j, sTo, p, r) -> ret.set(ret.rowStart(s, a) + j, sTo, p, r)));
+				return ret;
+			}
+		}
+	}
+
+	/**
+	 * Generates a model and wraps it in an MDP, after checking that every row is a distribution.
+	 *
+	 * @return the MDP, backed by the generated model.
+	 * @throws MDPException
+	 */
+	public MDP generateMDP() throws MDPException {
+		IndexedMDP model = this.generate();
+		MDPIndex index = model.getIndex();
+		LinkedHashSet<State> states = new LinkedHashSet<>();
+		for (int s = 0; s < this.numStates; s++) {
+			states.add(index.getState(s));
+		}
+		LinkedHashSet<Action> actions = new LinkedHashSet<>();
+		for (int a = 0; a < this.numActions; a++) {
+			actions.add(index.getAction(a));
+		}
+		return new MDP(states, actions, model);
+	}
+
+	/**
+	 * Receives the j-th successor of the row (s, a), in increasing successor order.
+	 */
+	@FunctionalInterface
+	private interface EntrySink {
+
+		void put(int s, int a, int j, int sTo, double p, double r);
+	}
+
+	/**
+	 * Generates the rows of the states in [from, to).
+	 */
+	@SuppressWarnings("serial")
+	private class GenerateTask extends RecursiveAction {
+
+		private final int from;
+		private final int to;
+		private final EntrySink sink;
+
+		GenerateTask(int from, int to, EntrySink sink) {
+			this.from = from;
+			this.to = to;
+			this.sink = sink;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= MIN_CHUNK) {
+				int[] successors = new int[branching];
+				double[] probabilities = new double[branching];
+				long[] chosen = branching > SMALL_BRANCHING ? new long[(numStates + 63) >>> 6] : null;
+				for (int s = this.from; s < this.to; s++) {
+					SplittableRandom rnd = RandomStreams.seeded(seed, s);
+					for (int a = 0; a < numActions; a++) {
+						double reward = rewards.sample(rnd);
+						sampleRow(rnd, chosen, successors, probabilities);
+						for (int j = 0; j < branching; j++) {
+							double r = rewardPerTransition ? rewards.sample(rnd) : reward;
+							this.sink.put(s, a, j, successors[j], probabilities[j], r);
+						}
+					}
+				}
+				return;
+			}
+			int mid = (this.from + this.to) >>> 1;
+			invokeAll(new GenerateTask(this.from, mid, this.sink), new GenerateTask(mid, this.to, this.sink));
+		}
+	}
+
+	/**
+	 * Draws branching distinct successors with Floyd's algorithm, sorts them, and gives them
+	 * normalized uniform probabilities.
+	 *
+	 * @param chosen - bitmap of the states, all clear and cleared again on return, or null for small rows.
+	 */
+	private void sampleRow(SplittableRandom rnd, long[] chosen, int[] successors, double[] probabilities) {
+		for (int j = 0, i = this.numStates - this.branching; i < this.numStates; j++, i++) {
+			int t = rnd.nextInt(i + 1);
+			if (chosen == null) {
+				successors[j] = contains(successors, j, t) ? i : t;
+			} else {
+				successors[j] = (chosen[t >>> 6] & (1L << t)) != 0 ? i : t;
+				chosen[successors[j] >>> 6] |= 1L << successors[j];
+			}
+		}
+		if (chosen == null) {
+			for (int j = 1; j < this.branching; j++) {
+				int v = successors[j];
+				int pos = j;
+				while (pos > 0 && successors[pos - 1] > v) {
+					successors[pos] = successors[pos - 1];
+					pos--;
+				}
+				successors[pos] = v;
+			}
+		} else {
+			for (int sTo : successors) {
+				chosen[sTo >>> 6] = 0L;
+			}
+			Arrays.sort(successors);
+		}
+		double sum = 0.0;
+		for (int j = 0; j < this.branching; j++) {
+			probabilities[j] = rnd.nextDouble();
+			sum += probabilities[j];
+		}
+		for (int j = 0; j < this.branching; j++) {
+			probabilities[j] /= sum;
+		}
+	}
+
+	private static boolean contains(int[] values, int length, int v) {
+		for (int i = 0; i < length; i++) {
+			if (values[i] == v) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
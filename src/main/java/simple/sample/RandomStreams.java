@@ -0,0 +1,138 @@
+package simple.sample;
+
+import java.util.SplittableRandom;
+
+/**
+ * Seeded, splittable random number streams. Every thread draws from its own stream, so
+ * parallel tasks never contend on a shared generator, and a task that installs the stream
+ * of its index with setCurrent(stream(index)) draws the same numbers whichever thread runs it.
+ *
+ * The seed is taken from the system property simple.seed when set, and is random otherwise.
+ */
+public final class RandomStreams {
+
+	/**
+	 * Odd constant spreading consecutive indices over the seed space.
+	 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * Seed of all the streams.
+	 */
+	private static volatile long seed = Long.getLong("simple.seed", new SplittableRandom().nextLong());
+
+	/**
+	 * Generator the default stream of each thread is split from.
+	 */
+	private static SplittableRandom root = new SplittableRandom(seed);
+
+	/**
+	 * Stream of each thread.
+	 */
+	private static final ThreadLocal<SplittableRandom> CURRENT = new ThreadLocal<>();
+
+	private RandomStreams() {
+	}
+
+	/**
+	 * Reseeds the streams. Threads that already have a default stream keep it, so this is
+	 * meant to be called before any randomness is used, or followed by setCurrent() in each task.
+	 *
+	 * @param seed
+	 */
+	public static synchronized void setSeed(long seed) {
+		RandomStreams.seed = seed;
+		RandomStreams.root = new SplittableRandom(seed);
+		CURRENT.remove();
+	}
+
+	public static long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the stream of the calling thread. A thread that has not installed a stream gets
+	 * the next one split from the root, which is reproducible only for single-threaded use.
+	 *
+	 * @return the stream of the calling thread.
+	 */
+	public static SplittableRandom current() {
+		SplittableRandom ret = CURRENT.get();
+		if (ret == null) {
+			synchronized (RandomStreams.class) {
+				ret = root.split();
+			}
+			CURRENT.set(ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Makes the given stream the one of the calling thread. Tasks run on pool threads should
+	 * reinstall the returned stream when they are done, so that the thread does not keep
+	 * drawing from the task's stream afterwards.
+	 *
+	 * @param rnd - the stream, or null to give the thread a default stream on its next draw.
+	 * @return the previous stream of the calling thread, or null if it had none.
+	 */
+	public static SplittableRandom setCurrent(SplittableRandom rnd) {
+		SplittableRandom ret = CURRENT.get();
+		CURRENT.set(rnd);
+		return ret;
+	}
+
+	/**
+	 * @param index
+	 * @return the stream of the task with the given index. The same seed and index always give the same stream.
+	 */
+	public static SplittableRandom stream(long index) {
+		return seeded(seed, index);
+	}
+
+	/**
+	 * @param seed
+	 * @param index
+	 * @return the stream of the task with the given index under the given seed rather than the global one.
+	 */
+	public static SplittableRandom seeded(long seed, long index) {
+		// Splitting also draws a fresh gamma, so streams of nearby indices do not overlap.
+		return new SplittableRandom(mix64(seed + GOLDEN_GAMMA * mix64(index))).split();
+	}
+
+	/**
+	 * @param group
+	 * @param index
+	 * @return the stream of task index of the given group, e.g. of dataset index for a sample size.
+	 */
+	public static SplittableRandom stream(long group, long index) {
+		return stream(mix64(group) ^ index);
+	}
+
+	/**
+	 * Draws a standard normal variate with the polar method.
+	 *
+	 * @param rnd
+	 * @return a sample of N(0, 1).
+	 */
+	public static double nextGaussian(SplittableRandom rnd) {
+		double u;
+		double v;
+		double s;
+		do {
+			u = 2 * rnd.nextDouble() - 1;
+			v = 2 * rnd.nextDouble() - 1;
+			s = u * u + v * v;
+		} while (s >= 1 || s == 0);
+		return u * Math.sqrt(-2 * Math.log(s) / s);
+	}
+
+	/**
+	 * Stafford's variant 13 of the MurmurHash3 finalizer.
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}